@@ -4,6 +4,7 @@ plugins {
     java
     application
     id("net.ltgt.errorprone") version "0.8.1"
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 java {
@@ -48,6 +49,11 @@ tasks {
     }
 }
 
+jmh {
+    // Run with ./gradlew jmh
+    jmhVersion = "1.21"
+}
+
 application {
     // Define the main class for the application
     mainClassName = "ru.mail.polis.Cluster"
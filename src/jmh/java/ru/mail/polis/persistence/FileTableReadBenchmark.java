@@ -0,0 +1,138 @@
+package ru.mail.polis.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads of one table mapped to memory against positional reads,
+ * point lookups, short and long scans from random keys, with and without read-ahead
+ * and verification of checksums.
+ * Use a table larger than RAM and a small block cache to see the effect of paging.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class FileTableReadBenchmark {
+    private static final int SCAN = 100;
+    private static final int LONG_SCAN = 10_000;
+
+    @Param({"1000000"})
+    private int rows;
+
+    @Param({"100"})
+    private int valueSize;
+
+    @Param({"MMAP", "PREAD"})
+    private AccessMode mode;
+
+    @Param({"0", "16777216"})
+    private long blockCacheSize;
+
+    @Param({"0", "262144"})
+    private int readAhead;
+
+    @Param({"false", "true"})
+    private boolean verifyChecksums;
+
+    private File data;
+    private FileTable table;
+
+    /**
+     * Random keys of each thread.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+
+        ByteBuffer next(final int rows) {
+            return key(random.nextInt(rows));
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%010d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory("reads").toFile();
+        final File file = new File(data, "table");
+        final Iterator<Cell> cells = new Iterator<>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Cell next() {
+                final ByteBuffer value = ByteBuffer.allocate(valueSize).putInt(0, next);
+                return new Cell(key(next), Value.of(++next, value));
+            }
+        };
+        Table.write(cells, file);
+        final LSMConfig config = LSMConfig.builder()
+                .positionalReadThreshold(mode == AccessMode.PREAD ? 0 : Long.MAX_VALUE)
+                .readAhead(readAhead)
+                .verifyChecksums(verifyChecksums)
+                .build();
+        table = FileTable.open(file, new BlockCache(blockCacheSize), config);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        table.close();
+        for (final File file : data.listFiles()) {
+            Files.delete(file.toPath());
+        }
+        Files.delete(data.toPath());
+    }
+
+    @Benchmark
+    public Cell get(final Keys keys) {
+        return table.get(keys.next(rows));
+    }
+
+    @Benchmark
+    public int scan(final Keys keys) {
+        return scan(keys, SCAN);
+    }
+
+    @Benchmark
+    public int longScan(final Keys keys) {
+        return scan(keys, LONG_SCAN);
+    }
+
+    private int scan(final Keys keys, final int limit) {
+        final Iterator<Cell> cells = table.iterator(keys.next(rows));
+        int count = 0;
+        while (count < limit && cells.hasNext()) {
+            cells.next();
+            count++;
+        }
+        return count;
+    }
+}
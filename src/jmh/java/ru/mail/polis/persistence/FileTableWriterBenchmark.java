@@ -0,0 +1,176 @@
+package ru.mail.polis.persistence;
+
+import com.google.common.collect.Iterators;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.mail.polis.dao.Iters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Throughput of writing SSTables on flush and compaction.
+ * Written bytes per second are reported as the "bytes" secondary result,
+ * "legacyFlush" is the writer issuing a write call per field of the cell.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class FileTableWriterBenchmark {
+    private static final int SOURCES = 4;
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"16", "256"})
+    private int valueSize;
+
+    private final AtomicInteger generation = new AtomicInteger();
+    private File data;
+    private List<Cell> cells;
+    private List<FileTable> sources;
+
+    /**
+     * Bytes written during the iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Written {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%010d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        data = Files.createTempDirectory("writer").toFile();
+        final Random random = new Random(42);
+        cells = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            final byte[] value = new byte[valueSize];
+            random.nextBytes(value);
+            cells.add(new Cell(key(i), Value.of(i + 1, ByteBuffer.wrap(value))));
+        }
+
+        // Interleaved generations, as compaction of tables flushed one by one
+        sources = new ArrayList<>(SOURCES);
+        for (int source = 0; source < SOURCES; source++) {
+            final List<Cell> part = new ArrayList<>(rows / SOURCES);
+            for (int i = source; i < rows; i += SOURCES) {
+                part.add(cells.get(i));
+            }
+            final File file = next();
+            Table.write(part.iterator(), file);
+            sources.add(FileTable.open(file));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (final FileTable source : sources) {
+            Files.delete(source.getFile().toPath());
+        }
+        Files.delete(data.toPath());
+    }
+
+    private File next() {
+        return new File(data, "table" + generation.incrementAndGet());
+    }
+
+    private static void done(@NotNull final File file, @NotNull final Written written) throws IOException {
+        written.bytes += file.length();
+        Files.delete(file.toPath());
+    }
+
+    @Benchmark
+    public void flush(final Written written) throws IOException {
+        final File file = next();
+        Table.write(cells.iterator(), file);
+        done(file, written);
+    }
+
+    @Benchmark
+    public void legacyFlush(final Written written) throws IOException {
+        final File file = next();
+        writeLegacy(cells.iterator(), file);
+        done(file, written);
+    }
+
+    @Benchmark
+    public void compaction(final Written written) throws IOException {
+        final List<Iterator<Cell>> iterators = new ArrayList<>(SOURCES);
+        for (final FileTable source : sources) {
+            iterators.add(source.iterator(ByteBuffer.allocate(0)));
+        }
+        final File file = next();
+        Table.write(Iters.collapseEquals(Iterators.mergeSorted(iterators, Cell.COMPARATOR), Cell::getKey), file);
+        done(file, written);
+    }
+
+    /**
+     * The writer replaced by {@link FileTableWriter}.
+     */
+    private static void writeLegacy(@NotNull final Iterator<Cell> cells, @NotNull final File to) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(
+                to.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final List<Long> offsets = new ArrayList<>();
+            long offset = 0;
+            while (cells.hasNext()) {
+                offsets.add(offset);
+                final Cell cell = cells.next();
+                final ByteBuffer key = cell.getKey();
+                fileChannel.write(Bytes.fromInt(key.remaining()));
+                offset += Integer.BYTES + key.remaining();
+                fileChannel.write(key.duplicate());
+
+                final Value value = cell.getValue();
+                fileChannel.write(Bytes.fromLong(value.isRemoved() ? -value.getTimeStamp() : value.getTimeStamp()));
+                offset += Long.BYTES;
+                if (!value.isRemoved()) {
+                    final ByteBuffer valueData = value.getData();
+                    fileChannel.write(Bytes.fromInt(valueData.remaining()));
+                    offset += Integer.BYTES + valueData.remaining();
+                    fileChannel.write(valueData);
+                }
+            }
+            for (final Long anOffset : offsets) {
+                fileChannel.write(Bytes.fromLong(anOffset));
+            }
+            fileChannel.write(Bytes.fromLong(offsets.size()));
+        }
+    }
+}
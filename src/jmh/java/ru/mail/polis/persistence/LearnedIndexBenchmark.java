@@ -0,0 +1,108 @@
+package ru.mail.polis.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup of the block of a key over uniformly distributed 8-byte ids:
+ * binary search of separator keys, the same with inline prefixes of {@link Separators}
+ * and the learned index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LearnedIndexBenchmark {
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"10000", "1000000"})
+    private int blocks;
+
+    @Param({"4", "32"})
+    private int error;
+
+    private ByteBuffer[] keys;
+    private Separators separators;
+    private ByteBuffer[] lookups;
+    private LearnedIndex learned;
+    private int next;
+
+    private static ByteBuffer id(final long id) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, id);
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        keys = new ByteBuffer[blocks];
+        for (int i = 0; i < blocks; i++) {
+            keys[i] = id(random.nextLong());
+        }
+        Arrays.sort(keys);
+        keys[0] = ByteBuffer.allocate(0);
+        separators = new Separators(keys);
+
+        final LearnedIndex.Builder builder = new LearnedIndex.Builder(error);
+        for (final ByteBuffer key : keys) {
+            builder.add(key);
+        }
+        final ByteBuffer section = ByteBuffer.allocate(builder.sizeInBytes());
+        builder.writeTo(section);
+        learned = LearnedIndex.read(section.flip());
+
+        lookups = new ByteBuffer[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = id(random.nextLong());
+        }
+    }
+
+    private ByteBuffer nextKey() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return lookups[next];
+    }
+
+    @Benchmark
+    public int keysOnly() {
+        final ByteBuffer key = nextKey();
+        int left = 0;
+        int right = blocks - 1;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int cmp = key.compareTo(keys[mid]);
+            if (cmp < 0) {
+                right = mid - 1;
+            } else if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return Math.max(0, right);
+    }
+
+    @Benchmark
+    public int binarySearch() {
+        return separators.floor(nextKey());
+    }
+
+    @Benchmark
+    public int learned() {
+        return learned.blockFor(nextKey(), separators);
+    }
+}
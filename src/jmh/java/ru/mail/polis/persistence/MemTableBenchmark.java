@@ -0,0 +1,109 @@
+package ru.mail.polis.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memtables of every {@link MemTableType}: upserts of random keys,
+ * seeks to random keys and short scans, with keys sharing a long prefix
+ * as keys of one entity type do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g", "-XX:MaxDirectMemorySize=4g"})
+public class MemTableBenchmark {
+    private static final int SCAN = 100;
+
+    @Param({"HEAP", "OFF_HEAP", "ART"})
+    private MemTableType type;
+
+    @Param({"100000"})
+    private int rows;
+
+    @Param({"0", "32"})
+    private int prefix;
+
+    @Param({"100"})
+    private int valueSize;
+
+    private Table table;
+    private ByteBuffer[] keys;
+    private ByteBuffer value;
+
+    /**
+     * Random keys of each thread.
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+
+        ByteBuffer next(final ByteBuffer[] keys) {
+            return keys[random.nextInt(keys.length)];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        final byte[] common = new byte[prefix];
+        Arrays.fill(common, (byte) 'k');
+        keys = new ByteBuffer[rows];
+        for (int i = 0; i < rows; i++) {
+            final byte[] suffix = String.format("%010d", i).getBytes(StandardCharsets.US_ASCII);
+            keys[i] = ByteBuffer.allocate(prefix + suffix.length).put(common).put(suffix).flip();
+        }
+        value = ByteBuffer.allocate(valueSize);
+    }
+
+    /**
+     * Fresh table every iteration, so memtables not reclaiming overwritten values stay small.
+     */
+    @Setup(Level.Iteration)
+    public void fill() throws IOException {
+        table = type.create();
+        for (final ByteBuffer key : keys) {
+            table.upsert(key, value);
+        }
+    }
+
+    @Benchmark
+    public void upsert(final Keys keys) throws IOException {
+        table.upsert(keys.next(this.keys), value);
+    }
+
+    @Benchmark
+    public Cell seek(final Keys keys) throws IOException {
+        return table.iterator(keys.next(this.keys)).next();
+    }
+
+    @Benchmark
+    public int scan(final Keys keys) throws IOException {
+        final Iterator<Cell> cells = table.iterator(keys.next(this.keys));
+        int count = 0;
+        while (count < SCAN && cells.hasNext()) {
+            cells.next();
+            count++;
+        }
+        return count;
+    }
+}
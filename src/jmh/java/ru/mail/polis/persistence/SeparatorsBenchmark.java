@@ -0,0 +1,80 @@
+package ru.mail.polis.persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search of the block index of tables from 10^4 to 10^8 rows of 8-byte ids:
+ * binary search of sorted prefixes against levels of the static B-tree.
+ * Blocks of about {@link TableFormat#BLOCK_SIZE} bytes hold {@link #ROWS_PER_BLOCK} such rows.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SeparatorsBenchmark {
+    private static final int ROWS_PER_BLOCK = 100;
+    private static final int LOOKUPS = 1 << 16;
+
+    @Param({"10000", "1000000", "100000000"})
+    private long rows;
+
+    private Separators sorted;
+    private Separators tree;
+    private ByteBuffer[] lookups;
+    private int next;
+
+    private static ByteBuffer id(final long id) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(0, id);
+    }
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final int blocks = (int) (rows / ROWS_PER_BLOCK);
+        final ByteBuffer[] keys = new ByteBuffer[blocks];
+        for (int i = 0; i < blocks; i++) {
+            keys[i] = id(random.nextLong());
+        }
+        Arrays.sort(keys);
+        keys[0] = ByteBuffer.allocate(0);
+        sorted = new Separators(keys, false);
+        tree = new Separators(keys, true);
+
+        lookups = new ByteBuffer[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            lookups[i] = id(random.nextLong());
+        }
+    }
+
+    private ByteBuffer nextKey() {
+        next = (next + 1) & (LOOKUPS - 1);
+        return lookups[next];
+    }
+
+    @Benchmark
+    public int sorted() {
+        return sorted.floor(nextKey());
+    }
+
+    @Benchmark
+    public int tree() {
+        return tree.floor(nextKey());
+    }
+}
@@ -0,0 +1,17 @@
+package ru.mail.polis.persistence;
+
+/**
+ * How tables read their files, see {@link LSMConfig.Builder#positionalReadThreshold(long)}.
+ */
+public enum AccessMode {
+    /**
+     * Maps the file to memory, the OS pages it in and out.
+     */
+    MMAP,
+
+    /**
+     * Reads blocks with positional reads into pooled buffers,
+     * so I/O happens only on misses of the block cache.
+     */
+    PREAD
+}
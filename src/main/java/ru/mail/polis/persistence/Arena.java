@@ -0,0 +1,140 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only off-heap memory of one memtable made of direct slabs.
+ * Addresses are slab - high Integer and offset in the slab - low Integer,
+ * records are aligned to {@link Long#BYTES}, so their longs may be updated atomically.
+ * Memory is never reused: slabs are released by GC together with the arena.
+ */
+@ThreadSafe
+final class Arena {
+    static final int SLAB_SIZE = 1024 * 1024;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final int slabSize;
+    // Bump pointer of the last slab: slab - high Integer, offset - low Integer
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private volatile ByteBuffer[] slabs;
+
+    Arena() {
+        this(SLAB_SIZE);
+    }
+
+    Arena(final int slabSize) {
+        this.slabSize = slabSize;
+        this.slabs = new ByteBuffer[]{ByteBuffer.allocateDirect(slabSize)};
+    }
+
+    /**
+     * Reserves memory, records larger than a slab get their own slab.
+     *
+     * @param size bytes of the record
+     * @return address of the record
+     */
+    long allocate(final int size) {
+        final int aligned = (size + Long.BYTES - 1) & -Long.BYTES;
+        allocated.addAndGet(aligned);
+        while (true) {
+            final long current = tail.get();
+            final int slab = (int) (current >>> Integer.SIZE);
+            final int offset = (int) current;
+            if (offset + aligned <= slabs[slab].capacity()) {
+                if (tail.compareAndSet(current, current + aligned)) {
+                    return current;
+                }
+            } else {
+                synchronized (this) {
+                    if (tail.get() == current) {
+                        // Bumps of the full slab can't clash with the new one, so the rest of the slab is dropped
+                        final ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+                        grown[slabs.length] = ByteBuffer.allocateDirect(Math.max(slabSize, aligned));
+                        slabs = grown;
+                        final long address = (long) (slabs.length - 1) << Integer.SIZE;
+                        tail.set(address + aligned);
+                        return address;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Bytes taken by records including alignment.
+     *
+     * @return allocated bytes
+     */
+    long sizeInBytes() {
+        return allocated.get();
+    }
+
+    @NotNull
+    ByteBuffer slab(final long address) {
+        return slabs[(int) (address >>> Integer.SIZE)];
+    }
+
+    static int offset(final long address) {
+        return (int) address;
+    }
+
+    int getInt(final long address) {
+        return slab(address).getInt(offset(address));
+    }
+
+    byte get(final long address) {
+        return slab(address).get(offset(address));
+    }
+
+    void putInt(final long address, final int value) {
+        slab(address).putInt(offset(address), value);
+    }
+
+    /**
+     * Copies bytes to the arena.
+     *
+     * @param address to copy to
+     * @param bytes   from position to limit, not consumed
+     */
+    void put(final long address, @NotNull final ByteBuffer bytes) {
+        slab(address).duplicate().position(offset(address)).put(bytes.duplicate());
+    }
+
+    /**
+     * Provides view of bytes in the arena.
+     *
+     * @param address of the first byte
+     * @param length  count of bytes
+     * @return read only buffer
+     */
+    @NotNull
+    ByteBuffer slice(final long address, final int length) {
+        final int offset = offset(address);
+        return slab(address).asReadOnlyBuffer().position(offset).limit(offset + length).slice();
+    }
+
+    long getLongVolatile(final long address) {
+        return (long) LONGS.getVolatile(slab(address), offset(address));
+    }
+
+    void putLong(final long address, final long value) {
+        LONGS.set(slab(address), offset(address), value);
+    }
+
+    void putLongVolatile(final long address, final long value) {
+        LONGS.setVolatile(slab(address), offset(address), value);
+    }
+
+    boolean compareAndSetLong(final long address, final long expected, final long value) {
+        return LONGS.compareAndSet(slab(address), offset(address), expected, value);
+    }
+}
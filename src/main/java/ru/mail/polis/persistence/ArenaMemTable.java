@@ -0,0 +1,243 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Memtable which keeps keys and values in the off-heap {@link Arena}, so they cost
+ * no heap objects and no GC work until they are read.
+ * Cells are indexed by the lock-free insert-only skiplist of arena addresses:
+ * a node is value - Long, keySize - Integer, height - Integer, next - Long for every level
+ * and the key, a value is timeStamp - Long, valueSize - Integer (TOMBSTONE for removed ones)
+ * and the value. Writes of a present key swap the value address of its node,
+ * so the newest value wins. Nodes are linked from the bottom level up with CAS,
+ * readers see every node linked at the bottom level.
+ * Cells read from the table are views of the arena.
+ */
+@ThreadSafe
+final class ArenaMemTable implements Table {
+    private static final int MAX_HEIGHT = 16;
+    private static final int VALUE = 0;
+    private static final int KEY_SIZE = Long.BYTES;
+    private static final int HEIGHT = KEY_SIZE + Integer.BYTES;
+    private static final int NEXT = HEIGHT + Integer.BYTES;
+    private static final int TIME_STAMP = 0;
+    private static final int VALUE_SIZE = Long.BYTES;
+    private static final int VALUE_DATA = VALUE_SIZE + Integer.BYTES;
+    private static final int TOMBSTONE = -1;
+    // The head is the first record of the arena, so no node links to this address
+    private static final long NIL = 0L;
+
+    private final Arena arena;
+    private final long head;
+
+    ArenaMemTable() {
+        this(new Arena());
+    }
+
+    ArenaMemTable(@NotNull final Arena arena) {
+        this.arena = arena;
+        this.head = node(ByteBuffer.allocate(0), MAX_HEIGHT, NIL);
+        assert head == NIL;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return arena.sizeInBytes();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new Iterator<>() {
+            private long node = ceiling(from);
+
+            @Override
+            public boolean hasNext() {
+                return node != NIL;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final Cell cell = cell(node);
+                node = successor(node, 0);
+                return cell;
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final long node = ceiling(key);
+        return node != NIL && compare(node, key) == 0 ? cell(node) : null;
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        final long timeStamp = Value.getMoment();
+        final long record = arena.allocate(VALUE_DATA + value.remaining());
+        arena.putLong(record + TIME_STAMP, timeStamp);
+        arena.putInt(record + VALUE_SIZE, value.remaining());
+        arena.put(record + VALUE_DATA, value);
+        put(key, record, timeStamp);
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        final long timeStamp = Value.getMoment();
+        final long record = arena.allocate(VALUE_DATA);
+        arena.putLong(record + TIME_STAMP, timeStamp);
+        arena.putInt(record + VALUE_SIZE, TOMBSTONE);
+        put(key, record, timeStamp);
+    }
+
+    private void put(@NotNull final ByteBuffer key, final long record, final long timeStamp) {
+        final long[] preds = new long[MAX_HEIGHT];
+        final long[] succs = new long[MAX_HEIGHT];
+        long node = NIL;
+        while (true) {
+            final long found = find(key, preds, succs);
+            if (found != NIL) {
+                swapValue(found, record, timeStamp);
+                return;
+            }
+            if (node == NIL) {
+                node = node(key, randomHeight(), record);
+            }
+            arena.putLong(links(node), succs[0]);
+            if (arena.compareAndSetLong(links(preds[0]), succs[0], node)) {
+                break;
+            }
+        }
+
+        final int height = arena.getInt(node + HEIGHT);
+        for (int level = 1; level < height; level++) {
+            while (true) {
+                arena.putLongVolatile(links(node) + (long) Long.BYTES * level, succs[level]);
+                if (arena.compareAndSetLong(links(preds[level]) + (long) Long.BYTES * level, succs[level], node)) {
+                    break;
+                }
+                find(key, preds, succs);
+            }
+        }
+    }
+
+    /**
+     * Replaces the value of the node unless it has a newer one.
+     */
+    private void swapValue(final long node, final long record, final long timeStamp) {
+        while (true) {
+            final long current = arena.getLongVolatile(node + VALUE);
+            if (arena.getLongVolatile(current + TIME_STAMP) > timeStamp
+                    || arena.compareAndSetLong(node + VALUE, current, record)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds predecessors and successors of the key at every level.
+     *
+     * @return node with the key or NIL
+     */
+    private long find(@NotNull final ByteBuffer key, final long[] preds, final long[] succs) {
+        long pred = head;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long succ = successor(pred, level);
+            while (succ != NIL && compare(succ, key) < 0) {
+                pred = succ;
+                succ = successor(pred, level);
+            }
+            preds[level] = pred;
+            succs[level] = succ;
+        }
+        final long candidate = succs[0];
+        return candidate != NIL && compare(candidate, key) == 0 ? candidate : NIL;
+    }
+
+    /**
+     * Finds the first node which key is not less than from.
+     */
+    private long ceiling(@NotNull final ByteBuffer from) {
+        long pred = head;
+        long succ = NIL;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            succ = successor(pred, level);
+            while (succ != NIL && compare(succ, from) < 0) {
+                pred = succ;
+                succ = successor(pred, level);
+            }
+        }
+        return succ;
+    }
+
+    /**
+     * Compares the key of the node with the key as {@link ByteBuffer#compareTo(ByteBuffer)} does.
+     */
+    private int compare(final long node, @NotNull final ByteBuffer key) {
+        final int keySize = arena.getInt(node + KEY_SIZE);
+        final long start = keyAddress(node);
+        final int common = Math.min(keySize, key.remaining());
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(arena.get(start + i), key.get(key.position() + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(keySize, key.remaining());
+    }
+
+    private long node(@NotNull final ByteBuffer key, final int height, final long record) {
+        final long node = arena.allocate(NEXT + Long.BYTES * height + key.remaining());
+        arena.putLong(node + VALUE, record);
+        arena.putInt(node + KEY_SIZE, key.remaining());
+        arena.putInt(node + HEIGHT, height);
+        for (int level = 0; level < height; level++) {
+            arena.putLong(links(node) + (long) Long.BYTES * level, NIL);
+        }
+        arena.put(node + NEXT + (long) Long.BYTES * height, key);
+        return node;
+    }
+
+    private static long links(final long node) {
+        return node + NEXT;
+    }
+
+    private long successor(final long node, final int level) {
+        return arena.getLongVolatile(links(node) + (long) Long.BYTES * level);
+    }
+
+    private long keyAddress(final long node) {
+        return links(node) + (long) Long.BYTES * arena.getInt(node + HEIGHT);
+    }
+
+    private Cell cell(final long node) {
+        final ByteBuffer key = arena.slice(keyAddress(node), arena.getInt(node + KEY_SIZE));
+        final long record = arena.getLongVolatile(node + VALUE);
+        final long timeStamp = arena.getLongVolatile(record + TIME_STAMP);
+        final int valueSize = arena.getInt(record + VALUE_SIZE);
+        if (valueSize == TOMBSTONE) {
+            return new Cell(key, Value.tombstone(timeStamp));
+        }
+        return new Cell(key, Value.of(timeStamp, arena.slice(record + VALUE_DATA, valueSize)));
+    }
+
+    /**
+     * Height of 1 with probability 3/4, every next level is 4 times less likely.
+     */
+    private static int randomHeight() {
+        final int bits = ThreadLocalRandom.current().nextInt();
+        final int height = 1 + Integer.numberOfTrailingZeros(bits | 1 << (MAX_HEIGHT - 1) * 2) / 2;
+        return Math.min(height, MAX_HEIGHT);
+    }
+}
@@ -0,0 +1,734 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memtable on the adaptive radix tree of key bytes.
+ * Inner nodes branch on one byte after the prefix shared by their keys, so lookups
+ * compare every byte of the key once. Inner nodes grow from sorted arrays of 4 and 16 children
+ * to the 256 byte index of 48 children and to the direct array of 256 children.
+ * Keys ending at an inner node are kept as its terminal leaf.
+ * Leaves keep copies of keys and values, updates replace them.
+ * Nodes are changed in place under optimistic lock coupling: readers validate versions of nodes
+ * and restart when a writer changed them, writers lock only the node they change and its parent
+ * when the node is replaced, so writes to different subtrees do not block each other.
+ * Scans see writes done meanwhile or not, in the order of keys.
+ * Children are ordered by signed bytes as {@link ByteBuffer} keys are.
+ */
+@ThreadSafe
+final class ArtMemTable implements Table {
+    private static final int SMALL_CAPACITY = 4;
+    private static final int SORTED_CAPACITY = 16;
+    private static final int INDEXED_CAPACITY = 48;
+    private static final int FANOUT = 256;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    // Never grows nor gets a prefix, so it is never replaced
+    private final Inner root = new DirectNode(EMPTY, null, new Node[FANOUT]);
+
+    @Override
+    public long sizeInBytes() {
+        return sizeInBytes.get();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new CellIterator(root, toArray(from));
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final Leaf leaf = find(toArray(key));
+        return leaf == null ? null : new Cell(key, leaf.value());
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        put(new Leaf(toArray(key), Value.getMoment(), toArray(value)));
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        put(new Leaf(toArray(key), Value.getMoment(), null));
+    }
+
+    private void put(@NotNull final Leaf leaf) {
+        final Leaf previous = insert(leaf);
+        if (previous == null) {
+            sizeInBytes.addAndGet(leaf.key.length + leaf.size());
+        } else {
+            sizeInBytes.addAndGet(leaf.size() - previous.size());
+        }
+    }
+
+    private static byte[] toArray(@NotNull final ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Maps the byte to the position of its child, so signed bytes are ordered.
+     */
+    private static int index(final byte b) {
+        return (b & 0xFF) ^ 0x80;
+    }
+
+    /**
+     * Counts bytes of the prefix equal to the key from the depth.
+     */
+    private static int match(@NotNull final byte[] prefix, @NotNull final byte[] key, final int depth) {
+        int matched = 0;
+        while (matched < prefix.length && depth + matched < key.length && prefix[matched] == key[depth + matched]) {
+            matched++;
+        }
+        return matched;
+    }
+
+    @Nullable
+    private Leaf find(@NotNull final byte[] key) {
+        restart:
+        while (true) {
+            Inner node = root;
+            long version = node.readLock();
+            int depth = 0;
+            while (true) {
+                final byte[] prefix = node.prefix;
+                final int matched = match(prefix, key, depth);
+                if (matched < prefix.length) {
+                    if (!node.validate(version)) {
+                        continue restart;
+                    }
+                    return null;
+                }
+                depth += matched;
+                if (depth == key.length) {
+                    final Leaf terminal = node.terminal;
+                    if (!node.validate(version)) {
+                        continue restart;
+                    }
+                    return terminal;
+                }
+                final Node child = node.child(index(key[depth]));
+                if (!node.validate(version)) {
+                    continue restart;
+                }
+                if (!(child instanceof Inner)) {
+                    return child != null && Arrays.equals(((Leaf) child).key, key) ? (Leaf) child : null;
+                }
+                final Inner inner = (Inner) child;
+                final long next = inner.readLock();
+                if (Inner.isObsolete(next) || !node.validate(version)) {
+                    continue restart;
+                }
+                node = inner;
+                version = next;
+                depth++;
+            }
+        }
+    }
+
+    /**
+     * Puts the leaf locking the node it changes, and the parent if the node is replaced.
+     *
+     * @param leaf to put
+     * @return replaced leaf or null
+     */
+    @Nullable
+    private Leaf insert(@NotNull final Leaf leaf) {
+        final byte[] key = leaf.key;
+        restart:
+        while (true) {
+            Inner parent = null;
+            long parentVersion = 0;
+            int parentIndex = 0;
+            Inner node = root;
+            long version = node.readLock();
+            int depth = 0;
+            while (true) {
+                final byte[] prefix = node.prefix;
+                final int matched = match(prefix, key, depth);
+                if (matched < prefix.length) {
+                    // The key leaves the prefix: the new parent keeps the matched part, the root has no prefix
+                    assert parent != null;
+                    if (!parent.upgrade(parentVersion)) {
+                        continue restart;
+                    }
+                    if (!node.upgrade(version)) {
+                        parent.unlock();
+                        continue restart;
+                    }
+                    final Inner split = new SortedNode(Arrays.copyOf(prefix, matched), SMALL_CAPACITY);
+                    split.add(index(prefix[matched]), node);
+                    split.put(leaf, depth + matched);
+                    node.prefix = Arrays.copyOfRange(prefix, matched + 1, prefix.length);
+                    parent.replace(parentIndex, split);
+                    node.unlock();
+                    parent.unlock();
+                    return null;
+                }
+                depth += matched;
+                if (depth == key.length) {
+                    if (!node.upgrade(version)) {
+                        continue restart;
+                    }
+                    final Leaf previous = node.terminal;
+                    node.terminal = leaf;
+                    node.unlock();
+                    return previous;
+                }
+                final int index = index(key[depth]);
+                final Node child = node.child(index);
+                if (!node.validate(version)) {
+                    continue restart;
+                }
+                if (child == null) {
+                    if (!node.isFull()) {
+                        if (!node.upgrade(version)) {
+                            continue restart;
+                        }
+                        node.add(index, leaf);
+                        node.unlock();
+                        return null;
+                    }
+                    assert parent != null;
+                    if (!parent.upgrade(parentVersion)) {
+                        continue restart;
+                    }
+                    if (!node.upgrade(version)) {
+                        parent.unlock();
+                        continue restart;
+                    }
+                    final Inner grown = node.grow();
+                    grown.add(index, leaf);
+                    parent.replace(parentIndex, grown);
+                    node.unlockObsolete();
+                    parent.unlock();
+                    return null;
+                }
+                if (child instanceof Leaf) {
+                    final Leaf other = (Leaf) child;
+                    if (!node.upgrade(version)) {
+                        continue restart;
+                    }
+                    if (Arrays.equals(other.key, key)) {
+                        node.replace(index, leaf);
+                        node.unlock();
+                        return other;
+                    }
+                    final int next = depth + 1;
+                    int common = 0;
+                    while (next + common < key.length
+                            && next + common < other.key.length
+                            && key[next + common] == other.key[next + common]) {
+                        common++;
+                    }
+                    final Inner split = new SortedNode(Arrays.copyOfRange(key, next, next + common), SMALL_CAPACITY);
+                    split.put(other, next + common);
+                    split.put(leaf, next + common);
+                    node.replace(index, split);
+                    node.unlock();
+                    return null;
+                }
+                final Inner inner = (Inner) child;
+                final long next = inner.readLock();
+                if (Inner.isObsolete(next) || !node.validate(version)) {
+                    continue restart;
+                }
+                parent = node;
+                parentVersion = version;
+                parentIndex = index;
+                node = inner;
+                version = next;
+                depth++;
+            }
+        }
+    }
+
+    private abstract static class Node {
+    }
+
+    private static final class Leaf extends Node {
+        private final byte[] key;
+        private final long timeStamp;
+        // Null for tombstones
+        @Nullable
+        private final byte[] value;
+
+        Leaf(@NotNull final byte[] key, final long timeStamp, @Nullable final byte[] value) {
+            this.key = key;
+            this.timeStamp = timeStamp;
+            this.value = value;
+        }
+
+        int size() {
+            return value == null ? 0 : value.length;
+        }
+
+        Value value() {
+            return value == null
+                    ? Value.tombstone(timeStamp)
+                    : new Value(Value.State.PRESENT, timeStamp, ByteBuffer.wrap(value));
+        }
+
+        Cell cell() {
+            return new Cell(ByteBuffer.wrap(key).asReadOnlyBuffer(), value());
+        }
+    }
+
+    /**
+     * Inner node changed in place under its version lock.
+     * Readers take the version, read fields and validate that the version is the same,
+     * writers upgrade the version they read to the lock.
+     * Nodes replaced by grown copies become obsolete and are not changed anymore.
+     */
+    private abstract static class Inner extends Node {
+        private static final long OBSOLETE = 1;
+        private static final long LOCKED = 2;
+        private static final VarHandle VERSION;
+
+        static {
+            try {
+                VERSION = MethodHandles.lookup().findVarHandle(Inner.class, "version", long.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // Count of changes times LOCKED plus the lock and obsolete bits
+        private volatile long version;
+        // Replaced, never changed, when the node is split
+        byte[] prefix;
+        @Nullable
+        Leaf terminal;
+
+        Inner(@NotNull final byte[] prefix, @Nullable final Leaf terminal) {
+            this.prefix = prefix;
+            this.terminal = terminal;
+        }
+
+        static boolean isObsolete(final long version) {
+            return (version & OBSOLETE) != 0;
+        }
+
+        /**
+         * Waits for the writer of the node.
+         *
+         * @return version to validate reads with
+         */
+        long readLock() {
+            long current = version;
+            while ((current & LOCKED) != 0) {
+                Thread.onSpinWait();
+                current = version;
+            }
+            return current;
+        }
+
+        /**
+         * Tells whether reads since {@link #readLock()} saw no writes.
+         */
+        boolean validate(final long read) {
+            // Keeps the reads of fields before the read of the version
+            VarHandle.acquireFence();
+            return version == read;
+        }
+
+        boolean upgrade(final long read) {
+            return !isObsolete(read) && VERSION.compareAndSet(this, read, read + LOCKED);
+        }
+
+        void unlock() {
+            version += LOCKED;
+        }
+
+        void unlockObsolete() {
+            version += LOCKED + OBSOLETE;
+        }
+
+        /**
+         * Puts the leaf which key matches the new node up to the depth, as the terminal or as the child.
+         */
+        void put(@NotNull final Leaf leaf, final int depth) {
+            if (depth == leaf.key.length) {
+                terminal = leaf;
+            } else {
+                add(index(leaf.key[depth]), leaf);
+            }
+        }
+
+        @Nullable
+        abstract Node child(int index);
+
+        /**
+         * Finds the first child not before the position.
+         *
+         * @param index position of the child
+         * @return position of the child or -1
+         */
+        abstract int ceiling(int index);
+
+        abstract boolean isFull();
+
+        /**
+         * Adds the child at the free position of the node which is not full.
+         */
+        abstract void add(int index, @NotNull Node child);
+
+        /**
+         * Replaces the existing child.
+         */
+        abstract void replace(int index, @NotNull Node child);
+
+        /**
+         * Copies the full node to the larger one.
+         */
+        @NotNull
+        abstract Inner grow();
+    }
+
+    /**
+     * Up to 4 or 16 children sorted by position.
+     */
+    private static final class SortedNode extends Inner {
+        private final byte[] indexes;
+        private final Node[] children;
+        private int count;
+
+        SortedNode(@NotNull final byte[] prefix, final int capacity) {
+            this(prefix, null, capacity);
+        }
+
+        SortedNode(@NotNull final byte[] prefix, @Nullable final Leaf terminal, final int capacity) {
+            super(prefix, terminal);
+            this.indexes = new byte[capacity];
+            this.children = new Node[capacity];
+        }
+
+        /**
+         * Finds the slot of the position, also while the node is being changed.
+         */
+        private int slot(final int index) {
+            final int size = Math.min(count, indexes.length);
+            for (int i = 0; i < size; i++) {
+                final int current = indexes[i] & 0xFF;
+                if (current >= index) {
+                    return current == index ? i : -i - 1;
+                }
+            }
+            return -size - 1;
+        }
+
+        @Nullable
+        @Override
+        Node child(final int index) {
+            final int slot = slot(index);
+            return slot < 0 ? null : children[slot];
+        }
+
+        @Override
+        int ceiling(final int index) {
+            final int size = Math.min(count, indexes.length);
+            for (int i = 0; i < size; i++) {
+                if ((indexes[i] & 0xFF) >= index) {
+                    return indexes[i] & 0xFF;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        boolean isFull() {
+            return count == indexes.length;
+        }
+
+        @Override
+        void add(final int index, @NotNull final Node child) {
+            final int insertion = -slot(index) - 1;
+            System.arraycopy(indexes, insertion, indexes, insertion + 1, count - insertion);
+            System.arraycopy(children, insertion, children, insertion + 1, count - insertion);
+            indexes[insertion] = (byte) index;
+            children[insertion] = child;
+            count++;
+        }
+
+        @Override
+        void replace(final int index, @NotNull final Node child) {
+            children[slot(index)] = child;
+        }
+
+        @NotNull
+        @Override
+        Inner grow() {
+            if (indexes.length == SMALL_CAPACITY) {
+                final SortedNode grown = new SortedNode(prefix, terminal, SORTED_CAPACITY);
+                System.arraycopy(indexes, 0, grown.indexes, 0, count);
+                System.arraycopy(children, 0, grown.children, 0, count);
+                grown.count = count;
+                return grown;
+            }
+            final IndexedNode grown = new IndexedNode(prefix, terminal);
+            for (int i = 0; i < count; i++) {
+                grown.add(indexes[i] & 0xFF, children[i]);
+            }
+            return grown;
+        }
+    }
+
+    /**
+     * Up to 48 children in the order of insertion with slots of all positions.
+     */
+    private static final class IndexedNode extends Inner {
+        // Slot of the child plus one, 0 for no child
+        private final byte[] slots = new byte[FANOUT];
+        private final Node[] children = new Node[INDEXED_CAPACITY];
+        private int count;
+
+        IndexedNode(@NotNull final byte[] prefix, @Nullable final Leaf terminal) {
+            super(prefix, terminal);
+        }
+
+        @Nullable
+        @Override
+        Node child(final int index) {
+            final int slot = slots[index];
+            return slot == 0 ? null : children[slot - 1];
+        }
+
+        @Override
+        int ceiling(final int index) {
+            for (int i = index; i < FANOUT; i++) {
+                if (slots[i] != 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        boolean isFull() {
+            return count == INDEXED_CAPACITY;
+        }
+
+        @Override
+        void add(final int index, @NotNull final Node child) {
+            children[count] = child;
+            count++;
+            slots[index] = (byte) count;
+        }
+
+        @Override
+        void replace(final int index, @NotNull final Node child) {
+            children[slots[index] - 1] = child;
+        }
+
+        @NotNull
+        @Override
+        Inner grow() {
+            final Node[] grown = new Node[FANOUT];
+            for (int i = 0; i < FANOUT; i++) {
+                grown[i] = child(i);
+            }
+            return new DirectNode(prefix, terminal, grown);
+        }
+    }
+
+    /**
+     * Children at their positions.
+     */
+    private static final class DirectNode extends Inner {
+        private final Node[] children;
+
+        DirectNode(@NotNull final byte[] prefix, @Nullable final Leaf terminal, @NotNull final Node[] children) {
+            super(prefix, terminal);
+            this.children = children;
+        }
+
+        @Nullable
+        @Override
+        Node child(final int index) {
+            return children[index];
+        }
+
+        @Override
+        int ceiling(final int index) {
+            for (int i = index; i < FANOUT; i++) {
+                if (children[i] != null) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        boolean isFull() {
+            return false;
+        }
+
+        @Override
+        void add(final int index, @NotNull final Node child) {
+            children[index] = child;
+        }
+
+        @Override
+        void replace(final int index, @NotNull final Node child) {
+            children[index] = child;
+        }
+
+        @NotNull
+        @Override
+        Inner grow() {
+            throw new IllegalStateException("Direct nodes have all positions");
+        }
+    }
+
+    /**
+     * Inner node being visited and the next position of its children, -1 before the terminal.
+     */
+    private static final class Frame {
+        private final Inner node;
+        private int next;
+
+        Frame(@NotNull final Inner node, final int next) {
+            this.node = node;
+            this.next = next;
+        }
+    }
+
+    /**
+     * In-order walk of leaves not less than the key, every step validates the node it reads.
+     * Nodes replaced meanwhile are walked as they were.
+     */
+    private static final class CellIterator implements Iterator<Cell> {
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        @Nullable
+        private Leaf next;
+
+        CellIterator(@NotNull final Inner root, @NotNull final byte[] from) {
+            seek(root, from);
+            if (next == null) {
+                next = advance();
+            }
+        }
+
+        /**
+         * Pushes frames of subtrees with keys not less than from, the nearest on top.
+         */
+        private void seek(@NotNull final Inner root, @NotNull final byte[] from) {
+            restart:
+            while (true) {
+                stack.clear();
+                Inner node = root;
+                long version = node.readLock();
+                int depth = 0;
+                while (true) {
+                    final byte[] prefix = node.prefix;
+                    final int matched = match(prefix, from, depth);
+                    if (matched < prefix.length) {
+                        // The whole subtree is either before or after from
+                        final boolean after = depth + matched == from.length || prefix[matched] > from[depth + matched];
+                        if (!node.validate(version)) {
+                            continue restart;
+                        }
+                        if (after) {
+                            stack.push(new Frame(node, -1));
+                        }
+                        return;
+                    }
+                    depth += matched;
+                    if (depth == from.length) {
+                        if (!node.validate(version)) {
+                            continue restart;
+                        }
+                        stack.push(new Frame(node, -1));
+                        return;
+                    }
+                    final int index = index(from[depth]);
+                    final Node child = node.child(index);
+                    if (!node.validate(version)) {
+                        continue restart;
+                    }
+                    stack.push(new Frame(node, index + 1));
+                    if (!(child instanceof Inner)) {
+                        if (child != null && Arrays.compare(((Leaf) child).key, from) >= 0) {
+                            next = (Leaf) child;
+                        }
+                        return;
+                    }
+                    final Inner inner = (Inner) child;
+                    final long childVersion = inner.readLock();
+                    if (!node.validate(version)) {
+                        continue restart;
+                    }
+                    node = inner;
+                    version = childVersion;
+                    depth++;
+                }
+            }
+        }
+
+        @Nullable
+        private Leaf advance() {
+            while (!stack.isEmpty()) {
+                final Frame frame = stack.peek();
+                if (frame.next < 0) {
+                    frame.next = 0;
+                    final Leaf terminal = frame.node.terminal;
+                    if (terminal != null) {
+                        return terminal;
+                    }
+                    continue;
+                }
+                final Inner node = frame.node;
+                long version;
+                int index;
+                Node child;
+                do {
+                    version = node.readLock();
+                    index = frame.next < FANOUT ? node.ceiling(frame.next) : -1;
+                    child = index < 0 ? null : node.child(index);
+                } while (!node.validate(version));
+                if (index < 0) {
+                    stack.pop();
+                    continue;
+                }
+                frame.next = index + 1;
+                if (child instanceof Leaf) {
+                    return (Leaf) child;
+                }
+                stack.push(new Frame((Inner) child, -1));
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            final Cell cell = next.cell();
+            next = advance();
+            return cell;
+        }
+    }
+}
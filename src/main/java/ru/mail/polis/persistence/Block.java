@@ -0,0 +1,391 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Data block of the SSTable.
+ * Plain cells are laid out back to back:
+ * keySize - Integer, key, timestamp - Long (negative for tombstones),
+ * and for live cells valueSize - Integer, value.
+ * Values moved to the value log have valueSize of POINTER and a {@link ValuePointer}.
+ * With {@link TableFormat#FLAG_PREFIX_KEYS} a cell starts with
+ * shared - VarInt, unshared - VarInt and the suffix of the key instead,
+ * where shared bytes come from the previous key. Every RESTART_INTERVAL
+ * cell is a restart point with the full key, restart offsets - Integer
+ * and their count - Integer close the block.
+ * With {@link TableFormat#FLAG_BLOCK_HASH} they are followed by buckets - Byte
+ * and their count - Integer, a bucket holds the restart of keys with its hash.
+ * With {@link TableFormat#FLAG_COMPACT_CELLS} the value of a prefix cell is
+ * zigzag delta of the timestamp from the base of the table - VarLong,
+ * kind - VarInt: TOMBSTONE, COMPACT_POINTER and a {@link ValuePointer}
+ * or the size of the inline value plus COMPACT_INLINE followed by the value.
+ * With {@link TableFormat#FLAG_VALUE_DICTIONARY} inline values are compressed, see {@link ValueDictionary}.
+ * Values of cells before the key looked up are skipped without decoding,
+ * their keys are decoded into one buffer of the iterator and compared in place.
+ */
+final class Block {
+    static final int RESTART_INTERVAL = 16;
+
+    /**
+     * Value size of cells which data is in the {@link ValueLog}, followed by {@link ValuePointer}.
+     */
+    private static final int POINTER = -1;
+
+    private static final int TOMBSTONE = 0;
+    private static final int COMPACT_POINTER = 1;
+    private static final int COMPACT_INLINE = 2;
+
+    static final byte BUCKET_EMPTY = (byte) 0xFF;
+    static final byte BUCKET_COLLISION = (byte) 0xFE;
+    static final int MAX_HASHED_RESTARTS = 0xFE;
+
+    private final ByteBuffer data;
+    private final boolean prefixKeys;
+    private final boolean compactCells;
+    private final long baseTimeStamp;
+    private final ValueDictionary dictionary;
+    private final int restarts;
+    private final ByteBuffer restartOffsets;
+    private final ByteBuffer buckets;
+
+    Block(@NotNull final ByteBuffer data, final int flags) {
+        this(data, flags, 0L, null);
+    }
+
+    /**
+     * Parses the trailer of the block.
+     *
+     * @param data          of the block
+     * @param flags         of the table
+     * @param baseTimeStamp of the table, see {@link TableFormat#SECTION_TIMESTAMP_BASE}
+     * @param dictionary    of values of the table or null if values are not compressed
+     */
+    Block(@NotNull final ByteBuffer data,
+          final int flags,
+          final long baseTimeStamp,
+          @Nullable final ValueDictionary dictionary) {
+        this.prefixKeys = (flags & TableFormat.FLAG_PREFIX_KEYS) != 0;
+        this.compactCells = prefixKeys && (flags & TableFormat.FLAG_COMPACT_CELLS) != 0;
+        this.baseTimeStamp = baseTimeStamp;
+        this.dictionary = compactCells ? dictionary : null;
+        if (prefixKeys) {
+            int end = data.limit();
+            if ((flags & TableFormat.FLAG_BLOCK_HASH) != 0) {
+                final int count = data.getInt(end - Integer.BYTES);
+                end -= Integer.BYTES + count;
+                this.buckets = data.duplicate().position(end).limit(end + count).slice();
+            } else {
+                this.buckets = null;
+            }
+            this.restarts = data.getInt(end - Integer.BYTES);
+            this.data = data.duplicate().limit(end - Integer.BYTES * (restarts + 1)).slice();
+            this.restartOffsets = data.duplicate().position(this.data.limit()).slice();
+        } else {
+            this.restarts = 0;
+            this.data = data;
+            this.restartOffsets = null;
+            this.buckets = null;
+        }
+    }
+
+    static int bucket(final long keyHash, final int buckets) {
+        return (int) ((keyHash >>> 1) % buckets);
+    }
+
+    /**
+     * Finds the cell with the key, the hash index lets it skip the binary search of restarts.
+     *
+     * @param key     to find
+     * @param keyHash hash of the key computed by {@link BloomFilter#hash(ByteBuffer)}
+     * @return cell or null if the block has no such key
+     */
+    @Nullable
+    Cell get(@NotNull final ByteBuffer key, final long keyHash) {
+        final Iterator<Cell> cells;
+        if (buckets != null && buckets.limit() > 0) {
+            final byte restart = buckets.get(bucket(keyHash, buckets.limit()));
+            if (restart == BUCKET_EMPTY) {
+                return null;
+            }
+            cells = restart == BUCKET_COLLISION
+                    ? iterator(key)
+                    : new PrefixIterator(restartOffsets.getInt(Integer.BYTES * Byte.toUnsignedInt(restart)), key);
+        } else {
+            cells = iterator(key);
+        }
+        if (!cells.hasNext()) {
+            return null;
+        }
+        final Cell cell = cells.next();
+        return cell.getKey().equals(key) ? cell : null;
+    }
+
+    /**
+     * Iterates over cells of the block starting at the first key not less than from.
+     *
+     * @param from key to seek
+     * @return iterator of cells
+     */
+    @NotNull
+    Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        if (prefixKeys) {
+            return new PrefixIterator(restartOffsets.getInt(Integer.BYTES * restartFor(from)), from);
+        }
+        int offset = 0;
+        while (offset < data.limit() && keyAt(data, offset).compareTo(from) < 0) {
+            offset = skip(data, offset);
+        }
+        return iterator(offset);
+    }
+
+    @NotNull
+    Iterator<Cell> iterator() {
+        if (prefixKeys) {
+            return new PrefixIterator(0, null);
+        }
+        return iterator(0);
+    }
+
+    private Iterator<Cell> iterator(final int start) {
+        return new Iterator<>() {
+            int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next < data.limit();
+            }
+
+            @Override
+            public Cell next() {
+                assert hasNext();
+                final Cell cell = cellAt(data, next);
+                next = skip(data, next);
+                return cell;
+            }
+        };
+    }
+
+    /**
+     * Finds the last restart point which key is not greater than from.
+     */
+    private int restartFor(@NotNull final ByteBuffer from) {
+        int left = 0;
+        int right = restarts - 1;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int cmp = compareToRestart(from, mid);
+            if (cmp < 0) {
+                right = mid - 1;
+            } else if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return Math.max(0, right);
+    }
+
+    private int compareToRestart(@NotNull final ByteBuffer key, final int restart) {
+        final int offset = restartOffsets.getInt(Integer.BYTES * restart);
+        // Restarts share no bytes, so the shared count is one zero byte
+        assert data.get(offset) == 0;
+        final int unshared = Bytes.getVarInt(data, offset + 1);
+        return Bytes.compare(key, data, offset + 1 + Bytes.varIntSize(unshared), unshared);
+    }
+
+    private final class PrefixIterator implements Iterator<Cell> {
+        private final ByteBuffer cursor;
+        // The last decoded key, keys of returned cells are copies
+        private byte[] key = new byte[64];
+        private Cell next;
+
+        PrefixIterator(final int start, final ByteBuffer from) {
+            this.cursor = data.duplicate().position(start);
+            this.next = decode(from);
+        }
+
+        /**
+         * Decodes the next cell which key is not less than from.
+         */
+        private Cell decode(@Nullable final ByteBuffer from) {
+            while (cursor.hasRemaining()) {
+                final int shared = Bytes.getVarInt(cursor);
+                final int unshared = Bytes.getVarInt(cursor);
+                final int size = shared + unshared;
+                if (size > key.length) {
+                    key = Arrays.copyOf(key, Math.max(key.length * 2, size));
+                }
+                final int start = cursor.position();
+                cursor.get(key, shared, unshared);
+                if (from != null && Bytes.compare(from, key, size) > 0) {
+                    skipValue(cursor);
+                    continue;
+                }
+                // Keys of restarts are whole in the block
+                final ByteBuffer cellKey = shared == 0
+                        ? data.duplicate().position(start).limit(start + unshared).slice()
+                        : ByteBuffer.wrap(Arrays.copyOf(key, size));
+                return new Cell(cellKey, compactCells ? compactValue(cursor) : value(cursor));
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Cell next() {
+            assert hasNext();
+            final Cell result = next;
+            next = decode(null);
+            return result;
+        }
+    }
+
+    private static Value value(@NotNull final ByteBuffer cursor) {
+        final long timeStamp = cursor.getLong();
+        if (timeStamp < 0) {
+            return Value.tombstone(-timeStamp);
+        }
+        final int valueSize = cursor.getInt();
+        if (valueSize == POINTER) {
+            return Value.of(timeStamp, ValuePointer.read(cursor));
+        }
+        final ByteBuffer value = cursor.slice().limit(valueSize);
+        cursor.position(cursor.position() + valueSize);
+        return Value.of(timeStamp, value);
+    }
+
+    private Value compactValue(@NotNull final ByteBuffer cursor) {
+        final long timeStamp = baseTimeStamp + Bytes.unZigZag(Bytes.getVarLong(cursor));
+        final int kind = Bytes.getVarInt(cursor);
+        if (kind == TOMBSTONE) {
+            return Value.tombstone(timeStamp);
+        }
+        if (kind == COMPACT_POINTER) {
+            return Value.of(timeStamp, ValuePointer.read(cursor));
+        }
+        final int valueSize = kind - COMPACT_INLINE;
+        final ByteBuffer value = cursor.slice().limit(valueSize);
+        cursor.position(cursor.position() + valueSize);
+        return Value.of(timeStamp, dictionary == null ? value : dictionary.decompress(value));
+    }
+
+    private void skipValue(@NotNull final ByteBuffer cursor) {
+        if (!compactCells) {
+            cursor.position(skipValue(cursor, cursor.position()));
+            return;
+        }
+        Bytes.getVarLong(cursor);
+        final int kind = Bytes.getVarInt(cursor);
+        if (kind == COMPACT_POINTER) {
+            cursor.position(cursor.position() + ValuePointer.BYTES);
+        } else if (kind != TOMBSTONE) {
+            cursor.position(cursor.position() + kind - COMPACT_INLINE);
+        }
+    }
+
+    static ByteBuffer keyAt(@NotNull final ByteBuffer cells, final int offset) {
+        final int keySize = cells.getInt(offset);
+        final ByteBuffer key = cells.duplicate();
+        key.position(offset + Integer.BYTES);
+        key.limit(key.position() + keySize);
+        return key.slice();
+    }
+
+    static Cell cellAt(@NotNull final ByteBuffer cells, final int position) {
+        final ByteBuffer key = keyAt(cells, position);
+        final ByteBuffer cursor = cells.duplicate().position(position + Integer.BYTES + key.remaining());
+        return new Cell(key, value(cursor));
+    }
+
+    private static int skip(@NotNull final ByteBuffer cells, final int position) {
+        return skipValue(cells, position + Integer.BYTES + cells.getInt(position));
+    }
+
+    private static int skipValue(@NotNull final ByteBuffer cells, final int position) {
+        int offset = position;
+        final long timeStamp = cells.getLong(offset);
+        offset += Long.BYTES;
+        if (timeStamp >= 0) {
+            final int valueSize = cells.getInt(offset);
+            offset += Integer.BYTES + (valueSize == POINTER ? ValuePointer.BYTES : valueSize);
+        }
+        return offset;
+    }
+
+    static int sizeOf(@NotNull final Cell cell) {
+        final int size = Integer.BYTES + cell.getKey().remaining();
+        return size + sizeOf(cell.getValue());
+    }
+
+    static int sizeOf(@NotNull final Value value) {
+        if (value.isRemoved()) {
+            return Long.BYTES;
+        }
+        if (value.getPointer() != null) {
+            return Long.BYTES + Integer.BYTES + ValuePointer.BYTES;
+        }
+        return Long.BYTES + Integer.BYTES + value.getData().remaining();
+    }
+
+    static int compactSizeOf(@NotNull final Value value, final long baseTimeStamp) {
+        final int size = Bytes.varLongSize(Bytes.zigZag(value.getTimeStamp() - baseTimeStamp));
+        if (value.isRemoved()) {
+            return size + 1;
+        }
+        if (value.getPointer() != null) {
+            return size + 1 + ValuePointer.BYTES;
+        }
+        final int valueSize = value.getData().remaining();
+        return size + Bytes.varIntSize(valueSize + COMPACT_INLINE) + valueSize;
+    }
+
+    static void writeCompact(@NotNull final ByteBuffer to, @NotNull final Value value, final long baseTimeStamp) {
+        Bytes.putVarLong(to, Bytes.zigZag(value.getTimeStamp() - baseTimeStamp));
+        if (value.isRemoved()) {
+            Bytes.putVarInt(to, TOMBSTONE);
+            return;
+        }
+        final ValuePointer pointer = value.getPointer();
+        if (pointer != null) {
+            Bytes.putVarInt(to, COMPACT_POINTER);
+            pointer.writeTo(to);
+            return;
+        }
+        final ByteBuffer data = value.getData();
+        Bytes.putVarInt(to, data.remaining() + COMPACT_INLINE);
+        to.put(data);
+    }
+
+    static void write(@NotNull final ByteBuffer to, @NotNull final Cell cell) {
+        final ByteBuffer key = cell.getKey();
+        to.putInt(key.remaining());
+        to.put(key.duplicate());
+        write(to, cell.getValue());
+    }
+
+    static void write(@NotNull final ByteBuffer to, @NotNull final Value value) {
+        if (value.isRemoved()) {
+            to.putLong(-value.getTimeStamp());
+        } else {
+            to.putLong(value.getTimeStamp());
+            final ValuePointer pointer = value.getPointer();
+            if (pointer != null) {
+                to.putInt(POINTER);
+                pointer.writeTo(to);
+                return;
+            }
+            final ByteBuffer data = value.getData();
+            to.putInt(data.remaining());
+            to.put(data);
+        }
+    }
+}
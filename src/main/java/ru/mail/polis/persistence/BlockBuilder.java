@@ -0,0 +1,169 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes sorted cells into one data block, see {@link Block} for the layout.
+ */
+final class BlockBuilder {
+    private final boolean prefixKeys;
+    private final boolean hashIndex;
+    private final boolean compactCells;
+    private long baseTimeStamp;
+    private boolean based;
+    private ValueDictionary.Compressor values;
+    private ByteBuffer buffer = ByteBuffer.allocate(TableFormat.BLOCK_SIZE * 2);
+    private ByteBuffer previous = ByteBuffer.allocate(0);
+    private int[] restarts = new int[TableFormat.BLOCK_SIZE / Block.RESTART_INTERVAL];
+    private int restartCount;
+    private int cells;
+    private long[] hashes = new long[TableFormat.BLOCK_SIZE / Block.RESTART_INTERVAL];
+
+    BlockBuilder(final int flags) {
+        this.prefixKeys = (flags & TableFormat.FLAG_PREFIX_KEYS) != 0;
+        this.hashIndex = prefixKeys && (flags & TableFormat.FLAG_BLOCK_HASH) != 0;
+        this.compactCells = prefixKeys && (flags & TableFormat.FLAG_COMPACT_CELLS) != 0;
+    }
+
+    /**
+     * Timestamp of the first cell added since creation, which timestamps of compact cells are relative to.
+     */
+    long getBaseTimeStamp() {
+        return baseTimeStamp;
+    }
+
+    boolean isEmpty() {
+        return cells == 0;
+    }
+
+    /**
+     * Size of encoded cells without the trailer.
+     */
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Compresses inline values of cells added from now on, needs compact cells.
+     *
+     * @param compressor of values of the table
+     */
+    void compressValues(@NotNull final ValueDictionary.Compressor compressor) {
+        assert compactCells;
+        this.values = compressor;
+    }
+
+    /**
+     * Appends the next cell of the block.
+     *
+     * @param cell    to append
+     * @param keyHash hash of the key computed by {@link BloomFilter#hash(ByteBuffer)}
+     */
+    void add(@NotNull final Cell cell, final long keyHash) {
+        final ByteBuffer key = cell.getKey();
+        if (!prefixKeys) {
+            buffer = Bytes.ensureCapacity(buffer, Block.sizeOf(cell));
+            Block.write(buffer, cell);
+            cells++;
+            return;
+        }
+
+        int shared = 0;
+        if (cells % Block.RESTART_INTERVAL == 0) {
+            if (restartCount == restarts.length) {
+                restarts = Arrays.copyOf(restarts, restartCount * 2);
+            }
+            restarts[restartCount++] = buffer.position();
+        } else {
+            final int common = Math.min(previous.remaining(), key.remaining());
+            while (shared < common
+                    && previous.get(previous.position() + shared) == key.get(key.position() + shared)) {
+                shared++;
+            }
+        }
+        final int unshared = key.remaining() - shared;
+        final Value value = stored(cell.getValue());
+        if (!based) {
+            baseTimeStamp = value.getTimeStamp();
+            based = true;
+        }
+
+        final int valueSize = compactCells ? Block.compactSizeOf(value, baseTimeStamp) : Block.sizeOf(value);
+        buffer = Bytes.ensureCapacity(buffer, Bytes.varIntSize(shared) + Bytes.varIntSize(unshared)
+                + unshared + valueSize);
+        Bytes.putVarInt(buffer, shared);
+        Bytes.putVarInt(buffer, unshared);
+        buffer.put(key.duplicate().position(key.position() + shared));
+        if (compactCells) {
+            Block.writeCompact(buffer, value, baseTimeStamp);
+        } else {
+            Block.write(buffer, value);
+        }
+        previous = key;
+        if (cells == hashes.length) {
+            hashes = Arrays.copyOf(hashes, cells * 2);
+        }
+        hashes[cells] = keyHash;
+        cells++;
+    }
+
+    private Value stored(@NotNull final Value value) {
+        if (values == null || value.isRemoved() || value.getPointer() != null) {
+            return value;
+        }
+        return Value.of(value.getTimeStamp(), values.compress(value.getData()));
+    }
+
+    /**
+     * Buckets point to the restart of the interval holding keys with the hash,
+     * colliding keys of different intervals turn the bucket to the binary search.
+     */
+    private void writeHashIndex() {
+        final int buckets = restartCount > Block.MAX_HASHED_RESTARTS ? 0 : cells * 4 / 3 + 1;
+        buffer = Bytes.ensureCapacity(buffer, buckets + Integer.BYTES);
+        final int start = buffer.position();
+        for (int i = 0; i < buckets; i++) {
+            buffer.put(Block.BUCKET_EMPTY);
+        }
+        for (int i = 0; buckets > 0 && i < cells; i++) {
+            final int bucket = start + Block.bucket(hashes[i], buckets);
+            final byte restart = (byte) (i / Block.RESTART_INTERVAL);
+            final byte current = buffer.get(bucket);
+            if (current == Block.BUCKET_EMPTY) {
+                buffer.put(bucket, restart);
+            } else if (current != restart) {
+                buffer.put(bucket, Block.BUCKET_COLLISION);
+            }
+        }
+        buffer.putInt(buckets);
+    }
+
+    /**
+     * Completes the block and resets the builder.
+     *
+     * @return encoded block, valid until the next call of add
+     */
+    @NotNull
+    ByteBuffer finish() {
+        if (prefixKeys) {
+            buffer = Bytes.ensureCapacity(buffer, Integer.BYTES * (restartCount + 1));
+            for (int i = 0; i < restartCount; i++) {
+                buffer.putInt(restarts[i]);
+            }
+            buffer.putInt(restartCount);
+            if (hashIndex) {
+                writeHashIndex();
+            }
+        }
+        buffer.flip();
+        final ByteBuffer result = buffer.duplicate();
+        buffer.clear();
+        previous = ByteBuffer.allocate(0);
+        restartCount = 0;
+        cells = 0;
+        return result;
+    }
+}
@@ -0,0 +1,396 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of blocks shared by all tables of the DAO.
+ * Blocks are kept off-heap in a fixed pool of slots of {@link #SLOT_SIZE} bytes,
+ * so the cache is limited by -XX:MaxDirectMemorySize instead of the heap.
+ * A slot is allocated when it is filled the first time and is reused after that,
+ * so the cache takes no more than its capacity and only as it grows.
+ * {@link #read} pins the slot of a hit and lets the reader see the block in place,
+ * pinned slots are not evicted. {@link #get} copies hits to heap for callers keeping the block.
+ * Larger blocks are not cached.
+ */
+@ThreadSafe
+final class BlockCache {
+    static final int SLOT_SIZE = TableFormat.BLOCK_SIZE * 2;
+    private static final int NONE = -1;
+
+    private final int slots;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @GuardedBy("this")
+    private final SlotIndex index;
+    @GuardedBy("this")
+    private final ByteBuffer[] buffers;
+    @GuardedBy("this")
+    private final long[] keys;
+    @GuardedBy("this")
+    private final int[] sizes;
+    @GuardedBy("this")
+    private final int[] pins;
+    @GuardedBy("this")
+    private final Eviction eviction;
+    @GuardedBy("this")
+    private int used;
+
+    /**
+     * Loads the block missing in the cache.
+     */
+    @FunctionalInterface
+    interface Loader {
+        @NotNull
+        ByteBuffer load() throws IOException;
+
+        /**
+         * Returns the loaded block once it is read, see {@link ReadableFile#release(ByteBuffer)}.
+         *
+         * @param block provided by {@link #load()}
+         */
+        default void release(@NotNull final ByteBuffer block) {
+            // Loaded blocks are not reused by default
+        }
+    }
+
+    /**
+     * Reads the block, which must not be kept after that.
+     *
+     * @param <T> result of the read
+     */
+    @FunctionalInterface
+    interface Reader<T> {
+        T read(@NotNull ByteBuffer block);
+    }
+
+    BlockCache(final long capacity) {
+        this(capacity, EvictionPolicy.CLOCK);
+    }
+
+    BlockCache(final long capacity, @NotNull final EvictionPolicy policy) {
+        this.slots = (int) Math.min(capacity / SLOT_SIZE, Integer.MAX_VALUE / SLOT_SIZE);
+        this.index = new SlotIndex(slots);
+        this.buffers = new ByteBuffer[slots];
+        this.keys = new long[slots];
+        this.sizes = new int[slots];
+        this.pins = new int[slots];
+        this.eviction = policy == EvictionPolicy.LRU ? new Lru(slots) : new Clock(slots);
+    }
+
+    static long key(final int table, final int block) {
+        return ((long) table << Integer.SIZE) | block;
+    }
+
+    /**
+     * Provides the block from the cache or loads it, for callers keeping the block.
+     *
+     * @param key    of the block, see {@link #key(int, int)}
+     * @param fill   whether to cache the loaded block, false for blocks of scans
+     * @param loader of the missing block
+     * @return copy of the cached block or the loaded one, to be returned to the loader
+     * @throws IOException if the loader failed
+     */
+    @NotNull
+    ByteBuffer get(final long key, final boolean fill, @NotNull final Loader loader) throws IOException {
+        if (slots > 0) {
+            final ByteBuffer cached = copy(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+            misses.increment();
+        }
+        final ByteBuffer block = loader.load();
+        if (fill) {
+            put(key, block);
+        }
+        return block;
+    }
+
+    /**
+     * Reads the block from the cache in place or loads it.
+     *
+     * @param key    of the block, see {@link #key(int, int)}
+     * @param fill   whether to cache the loaded block
+     * @param loader of the missing block
+     * @param reader of the block, must not keep it
+     * @param <T>    result of the read
+     * @return result of the reader
+     * @throws IOException if the loader failed
+     */
+    <T> T read(final long key,
+               final boolean fill,
+               @NotNull final Loader loader,
+               @NotNull final Reader<T> reader) throws IOException {
+        if (slots > 0) {
+            final int slot;
+            final ByteBuffer view;
+            synchronized (this) {
+                slot = index.get(key);
+                if (slot == NONE) {
+                    view = null;
+                } else {
+                    eviction.access(slot);
+                    pins[slot]++;
+                    view = buffers[slot].asReadOnlyBuffer().limit(sizes[slot]);
+                }
+            }
+            if (view != null) {
+                hits.increment();
+                try {
+                    return reader.read(view);
+                } finally {
+                    unpin(slot);
+                }
+            }
+            misses.increment();
+        }
+        final ByteBuffer block = loader.load();
+        try {
+            if (fill) {
+                put(key, block);
+            }
+            return reader.read(block);
+        } finally {
+            loader.release(block);
+        }
+    }
+
+    private synchronized void unpin(final int slot) {
+        pins[slot]--;
+    }
+
+    private synchronized ByteBuffer copy(final long key) {
+        final int slot = index.get(key);
+        if (slot == NONE) {
+            return null;
+        }
+        eviction.access(slot);
+        final ByteBuffer copy = ByteBuffer.allocate(sizes[slot]);
+        copy.put(buffers[slot].duplicate().limit(sizes[slot]));
+        return copy.flip();
+    }
+
+    private void put(final long key, @NotNull final ByteBuffer block) {
+        if (slots == 0 || block.remaining() > SLOT_SIZE) {
+            return;
+        }
+        synchronized (this) {
+            if (index.get(key) != NONE) {
+                return;
+            }
+            final int slot;
+            if (used < slots) {
+                slot = used++;
+                buffers[slot] = ByteBuffer.allocateDirect(SLOT_SIZE);
+            } else {
+                slot = victim();
+                if (slot == NONE) {
+                    return;
+                }
+                index.remove(keys[slot]);
+            }
+            buffers[slot].clear().put(block.duplicate()).clear();
+            keys[slot] = key;
+            sizes[slot] = block.remaining();
+            index.put(key, slot);
+            eviction.insert(slot);
+        }
+    }
+
+    /**
+     * Chooses the slot to reuse, skipping pinned slots.
+     *
+     * @return unpinned slot or NONE if every slot is pinned
+     */
+    @GuardedBy("this")
+    private int victim() {
+        for (int attempt = 0; attempt < slots * 2; attempt++) {
+            final int slot = eviction.victim();
+            if (pins[slot] == 0) {
+                return slot;
+            }
+            eviction.insert(slot);
+        }
+        return NONE;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Open addressing map of keys of blocks to slots without boxing,
+     * with linear probing and backward shift deletion.
+     */
+    private static final class SlotIndex {
+        private final long[] keys;
+        private final int[] slots;
+        private final int mask;
+
+        SlotIndex(final int capacity) {
+            final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+            this.keys = new long[size];
+            this.slots = new int[size];
+            this.mask = size - 1;
+            Arrays.fill(slots, NONE);
+        }
+
+        private int home(final long key) {
+            final long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        int get(final long key) {
+            for (int i = home(key); slots[i] != NONE; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return slots[i];
+                }
+            }
+            return NONE;
+        }
+
+        void put(final long key, final int slot) {
+            int i = home(key);
+            while (slots[i] != NONE && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            slots[i] = slot;
+        }
+
+        void remove(final long key) {
+            int i = home(key);
+            while (slots[i] != NONE && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (slots[i] == NONE) {
+                return;
+            }
+            // Moves back the following entries which probe sequences pass the freed position
+            int free = i;
+            for (int j = (i + 1) & mask; slots[j] != NONE; j = (j + 1) & mask) {
+                final int home = home(keys[j]);
+                if (((j - home) & mask) >= ((j - free) & mask)) {
+                    keys[free] = keys[j];
+                    slots[free] = slots[j];
+                    free = j;
+                }
+            }
+            slots[free] = NONE;
+        }
+    }
+
+    /**
+     * Order of slots to evict, called under the lock of the cache.
+     */
+    private interface Eviction {
+        void insert(int slot);
+
+        void access(int slot);
+
+        /**
+         * Chooses the slot to reuse.
+         *
+         * @return occupied slot
+         */
+        int victim();
+    }
+
+    private static final class Lru implements Eviction {
+        private static final int NONE = -1;
+
+        private final int[] prev;
+        private final int[] next;
+        private int head = NONE;
+        private int tail = NONE;
+
+        Lru(final int slots) {
+            this.prev = new int[slots];
+            this.next = new int[slots];
+        }
+
+        @Override
+        public void insert(final int slot) {
+            prev[slot] = NONE;
+            next[slot] = head;
+            if (head != NONE) {
+                prev[head] = slot;
+            }
+            head = slot;
+            if (tail == NONE) {
+                tail = slot;
+            }
+        }
+
+        @Override
+        public void access(final int slot) {
+            if (slot != head) {
+                unlink(slot);
+                insert(slot);
+            }
+        }
+
+        @Override
+        public int victim() {
+            final int slot = tail;
+            unlink(slot);
+            return slot;
+        }
+
+        private void unlink(final int slot) {
+            if (prev[slot] == NONE) {
+                head = next[slot];
+            } else {
+                next[prev[slot]] = next[slot];
+            }
+            if (next[slot] == NONE) {
+                tail = prev[slot];
+            } else {
+                prev[next[slot]] = prev[slot];
+            }
+        }
+    }
+
+    private static final class Clock implements Eviction {
+        private final boolean[] referenced;
+        private int hand;
+
+        Clock(final int slots) {
+            this.referenced = new boolean[slots];
+        }
+
+        @Override
+        public void insert(final int slot) {
+            referenced[slot] = true;
+        }
+
+        @Override
+        public void access(final int slot) {
+            referenced[slot] = true;
+        }
+
+        @Override
+        public int victim() {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % referenced.length;
+            }
+            final int slot = hand;
+            hand = (hand + 1) % referenced.length;
+            return slot;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package ru.mail.polis.persistence;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Reader of block-based SSTables described in {@link TableFormat}.
+ * The sparse index is kept on heap, so a lookup binary searches
+ * separator keys of blocks and scans the only block.
+ * Large tables keep only the top level of the {@link PartitionedIndex} on heap.
+ */
+final class BlockFileTable extends FileTable {
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final int id = IDS.incrementAndGet();
+    private final ReadableFile data;
+    private final int flags;
+    private final long baseTimeStamp;
+    private final ValueDictionary dictionary;
+    private final Compression compression;
+    private final boolean checksums;
+    private final boolean verify;
+    private final BlockCache cache;
+    private final int readAhead;
+    private final int blocks;
+    private final long dataEnd;
+    private final long[] blockOffsets;
+    private final Separators separators;
+    private final PartitionedIndex partitioned;
+    private final LearnedIndex learned;
+    private final BloomFilter bloom;
+    private final TableStats stats;
+
+    BlockFileTable(@NotNull final File file, @NotNull final BlockCache cache) throws IOException {
+        this(file, cache, LSMConfig.DEFAULT);
+    }
+
+    /**
+     * Creates instance of FileTable and loads index of blocks.
+     *
+     * @param file   to get data
+     * @param cache  of blocks
+     * @param config options of reading: access mode, read-ahead and verification of checksums
+     * @throws IOException if was input or output errors
+     */
+    BlockFileTable(@NotNull final File file,
+                   @NotNull final BlockCache cache,
+                   @NotNull final LSMConfig config) throws IOException {
+        super(file);
+        this.cache = cache;
+        this.readAhead = config.getReadAhead();
+
+        this.data = config.getAccessMode(file.length()) == AccessMode.PREAD
+                ? new PreadFile(file)
+                : new MappedFile(file);
+        final long footer = data.size() - TableFormat.FOOTER_SIZE;
+        final long metaOffset = data.getLong(footer);
+        this.flags = data.getInt(footer + Long.BYTES);
+        this.compression = Compression.of(flags >>> TableFormat.COMPRESSION_SHIFT & TableFormat.COMPRESSION_MASK);
+        this.checksums = (flags & TableFormat.FLAG_BLOCK_CHECKSUM) != 0;
+        this.verify = checksums && config.isVerifyChecksums();
+        final int count = data.getInt(metaOffset);
+        final ByteBuffer meta = data.slice(metaOffset + Integer.BYTES, count * TableFormat.DIRECTORY_ENTRY);
+        final Map<Integer, ByteBuffer> sections = new HashMap<>();
+        long end = metaOffset;
+        long partitions = -1;
+        for (int i = 0; i < count; i++) {
+            final int type = meta.getInt();
+            final long offset = meta.getLong();
+            final long length = meta.getLong();
+            if (type == TableFormat.SECTION_INDEX_PARTITIONS) {
+                // Partitions are read on demand
+                partitions = offset;
+            } else {
+                sections.put(type, data.slice(offset, (int) length));
+            }
+            end = Math.min(end, offset);
+        }
+        this.dataEnd = end;
+
+        final ByteBuffer top = sections.get(TableFormat.SECTION_TOP_INDEX);
+        final ByteBuffer index = sections.get(TableFormat.SECTION_INDEX);
+        if (top != null && partitions >= 0) {
+            this.partitioned = new PartitionedIndex(top, partitions, data, cache, id);
+            this.blocks = partitioned.blocks();
+            this.blockOffsets = null;
+            this.separators = null;
+        } else if (index != null) {
+            this.partitioned = null;
+            // Skip count of rows
+            index.getLong();
+            this.blocks = index.getInt();
+            this.blockOffsets = new long[blocks + 1];
+            final ByteBuffer[] keys = new ByteBuffer[blocks];
+            for (int i = 0; i < blocks; i++) {
+                blockOffsets[i] = index.getLong();
+                final int keySize = index.getInt();
+                final ByteBuffer key = index.slice();
+                key.limit(keySize);
+                keys[i] = key;
+                index.position(index.position() + keySize);
+            }
+            blockOffsets[blocks] = dataEnd;
+            this.separators = new Separators(keys);
+        } else {
+            throw new IOException("No index in " + file);
+        }
+
+        final ByteBuffer bloomSection = sections.get(TableFormat.SECTION_BLOOM);
+        this.bloom = bloomSection == null ? null : BloomFilter.read(bloomSection);
+        final ByteBuffer statsSection = sections.get(TableFormat.SECTION_STATS);
+        this.stats = statsSection == null ? null : TableStats.read(statsSection);
+        final ByteBuffer learnedSection = sections.get(TableFormat.SECTION_LEARNED_INDEX);
+        this.learned = learnedSection == null || partitioned != null ? null : LearnedIndex.read(learnedSection);
+        final ByteBuffer baseSection = sections.get(TableFormat.SECTION_TIMESTAMP_BASE);
+        this.baseTimeStamp = baseSection == null ? 0L : baseSection.getLong(0);
+        final ByteBuffer dictionarySection = sections.get(TableFormat.SECTION_VALUE_DICTIONARY);
+        if (dictionarySection == null || (flags & TableFormat.FLAG_VALUE_DICTIONARY) == 0) {
+            this.dictionary = null;
+        } else {
+            // Keep the dictionary resident
+            final ByteBuffer copy = ByteBuffer.allocate(dictionarySection.remaining()).put(dictionarySection);
+            this.dictionary = new ValueDictionary(copy.flip());
+        }
+    }
+
+    @Nullable
+    @Override
+    TableStats getStats() {
+        return stats;
+    }
+
+    @Override
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return bloom == null || bloom.mightContain(key);
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        if (blocks == 0) {
+            return null;
+        }
+        final int i = blockFor(key);
+        try {
+            return cache.read(BlockCache.key(id, i), true, new PooledLoader(i), raw -> {
+                final Cell cell = new Block(raw, flags, baseTimeStamp, dictionary).get(key, BloomFilter.hash(key));
+                // The block may be reused once read
+                return cell == null ? null : detach(cell);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read block " + i + " of " + getFile(), e);
+        }
+    }
+
+    /**
+     * Copies the key and the inline data of the cell out of its block.
+     * Blocks are reused off-heap only, so parts of the cell on heap are already its own.
+     */
+    @NotNull
+    private static Cell detach(@NotNull final Cell cell) {
+        final ByteBuffer key = cell.getKey().isDirect() ? ByteBuffer.wrap(Bytes.toArray(cell.getKey())) : cell.getKey();
+        final Value value = cell.getValue();
+        if (value.isRemoved() || value.getPointer() != null || !value.getData().isDirect()) {
+            return key == cell.getKey() ? cell : new Cell(key, value);
+        }
+        return new Cell(key, Value.of(value.getTimeStamp(), ByteBuffer.wrap(Bytes.toArray(value.getData()))));
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        if (blocks == 0) {
+            return Collections.emptyIterator();
+        }
+        final int first = blockFor(from);
+        return new Iterator<>() {
+            int block = first;
+            Iterator<Cell> cells = blockAt(first, true).iterator(from);
+            // End of the region read ahead
+            long prefetched;
+
+            @Override
+            public boolean hasNext() {
+                while (!cells.hasNext() && block + 1 < blocks) {
+                    block++;
+                    readAhead();
+                    // Do not let scans wash out the cache
+                    cells = blockAt(block, false).iterator();
+                }
+                return cells.hasNext();
+            }
+
+            /**
+             * Keeps the next readAhead bytes after the current block requested,
+             * starts only once the scan leaves its first block.
+             */
+            private void readAhead() {
+                if (readAhead == 0) {
+                    return;
+                }
+                final long next = offset(block + 1);
+                if (next + readAhead / 2 < prefetched) {
+                    return;
+                }
+                final long start = Math.max(next, prefetched);
+                final long end = Math.min(dataEnd, next + readAhead);
+                if (start < end) {
+                    ReadAhead.submit(data, start, end - start);
+                }
+                prefetched = end;
+            }
+
+            @Override
+            public Cell next() {
+                assert hasNext();
+                return cells.next();
+            }
+        };
+    }
+
+    /**
+     * Finds the last block which separator is not greater than from.
+     */
+    private int blockFor(@NotNull final ByteBuffer from) {
+        if (partitioned != null) {
+            return partitioned.blockFor(from);
+        }
+        if (learned != null) {
+            return learned.blockFor(from, separators);
+        }
+        return separators.floor(from);
+    }
+
+    private long offset(final int block) {
+        return partitioned == null ? blockOffsets[block] : partitioned.offset(block);
+    }
+
+    private ByteBuffer stored(final int i, final boolean pooled) {
+        if (partitioned != null) {
+            return partitioned.block(i, pooled);
+        }
+        final long offset = blockOffsets[i];
+        final int length = (int) (blockOffsets[i + 1] - offset);
+        return pooled ? data.acquire(offset, length) : data.slice(offset, length);
+    }
+
+    /**
+     * Loads the block owned by the caller. Uncompressed blocks are read right into their own buffers,
+     * which scans need anyway, see {@link PooledLoader} for point lookups.
+     */
+    private ByteBuffer load(final int i) throws IOException {
+        if (compression == Compression.NONE) {
+            final ByteBuffer stored = stored(i, false);
+            verify(i, stored);
+            return payload(stored);
+        }
+        final ByteBuffer stored = stored(i, true);
+        try {
+            verify(i, stored);
+            final ByteBuffer raw = Compression.decompress(payload(stored));
+            // Incompressible blocks are views of the stored ones
+            return raw.isDirect() ? ByteBuffer.allocate(raw.remaining()).put(raw).flip() : raw;
+        } finally {
+            data.release(stored);
+        }
+    }
+
+    private void verify(final int i, @NotNull final ByteBuffer stored) throws IOException {
+        if (verify && !isIntact(stored)) {
+            throw new IOException("Checksum mismatch in block " + i + " of " + getFile());
+        }
+    }
+
+    /**
+     * Strips the checksum of the stored block.
+     */
+    private ByteBuffer payload(@NotNull final ByteBuffer stored) {
+        if (!checksums) {
+            return stored;
+        }
+        return stored.duplicate().limit(stored.limit() - Integer.BYTES).slice();
+    }
+
+    private static boolean isIntact(@NotNull final ByteBuffer stored) {
+        final int end = stored.limit() - Integer.BYTES;
+        if (end < stored.position()) {
+            return false;
+        }
+        final CRC32C crc = new CRC32C();
+        crc.update(stored.duplicate().limit(end));
+        return (int) crc.getValue() == stored.getInt(end);
+    }
+
+    @Override
+    int scrub(@NotNull final RateLimiter limiter) throws InterruptedException {
+        if (!checksums) {
+            return 0;
+        }
+        int corrupt = 0;
+        for (int i = 0; i < blocks; i++) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            final ByteBuffer stored = stored(i, true);
+            try {
+                limiter.acquire(Math.max(1, stored.remaining()));
+                if (!isIntact(stored)) {
+                    corrupt++;
+                }
+            } finally {
+                data.release(stored);
+            }
+        }
+        return corrupt;
+    }
+
+    private Block blockAt(final int i, final boolean fill) {
+        assert 0 <= i && i < blocks;
+        try {
+            final ByteBuffer raw = cache.get(BlockCache.key(id, i), fill, () -> load(i));
+            return new Block(raw, flags, baseTimeStamp, dictionary);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read block " + i + " of " + getFile(), e);
+        }
+    }
+
+    /**
+     * Loads the block read in place, uncompressed blocks stay in the acquired buffer until released.
+     * Point lookups copy out only the cell they return, see {@link #detach(Cell)}.
+     */
+    private final class PooledLoader implements BlockCache.Loader {
+        private final int block;
+        private ByteBuffer stored;
+
+        PooledLoader(final int block) {
+            assert 0 <= block && block < blocks;
+            this.block = block;
+        }
+
+        @NotNull
+        @Override
+        public ByteBuffer load() throws IOException {
+            if (compression != Compression.NONE) {
+                return BlockFileTable.this.load(block);
+            }
+            final ByteBuffer acquired = stored(block, true);
+            try {
+                verify(block, acquired);
+            } catch (IOException e) {
+                data.release(acquired);
+                throw e;
+            }
+            stored = acquired;
+            return payload(acquired);
+        }
+
+        @Override
+        public void release(@NotNull final ByteBuffer loaded) {
+            if (stored != null) {
+                data.release(stored);
+                stored = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+}
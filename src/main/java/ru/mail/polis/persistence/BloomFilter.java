@@ -0,0 +1,118 @@
+package ru.mail.polis.persistence;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Bloom filter over keys of the SSTable.
+ * Layout: hashes - Integer, words - Integer, bits as Longs.
+ * Probes are derived from one 64-bit murmur3 hash by double hashing.
+ */
+final class BloomFilter {
+    @SuppressWarnings("UnstableApiUsage")
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int hashes;
+    private final LongBuffer bits;
+    private final long size;
+
+    private BloomFilter(final int hashes, @NotNull final LongBuffer bits) {
+        this.hashes = hashes;
+        this.bits = bits;
+        this.size = (long) bits.limit() * Long.SIZE;
+    }
+
+    @SuppressWarnings("UnstableApiUsage")
+    static long hash(@NotNull final ByteBuffer key) {
+        return HASH.hashBytes(key.duplicate()).asLong();
+    }
+
+    /**
+     * Builds filter of given hashes of keys.
+     *
+     * @param keyHashes hashes computed by {@link #hash(ByteBuffer)}
+     * @param count     count of hashes
+     * @param fpp       expected false positive rate
+     * @return filter
+     */
+    @NotNull
+    static BloomFilter create(@NotNull final long[] keyHashes, final int count, final double fpp) {
+        final BloomFilter filter = create(count, fpp);
+        for (int i = 0; i < count; i++) {
+            filter.put(keyHashes[i]);
+        }
+        return filter;
+    }
+
+    /**
+     * Creates empty filter to {@link #put(long)} hashes to.
+     *
+     * @param count expected count of keys
+     * @param fpp   expected false positive rate
+     * @return filter
+     */
+    @NotNull
+    static BloomFilter create(final long count, final double fpp) {
+        final long optimalBits = (long) Math.ceil(-count * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        final int words = (int) Math.max(1, (optimalBits + Long.SIZE - 1) / Long.SIZE);
+        final int hashes = count == 0
+                ? 1 : Math.max(1, (int) Math.round((double) words * Long.SIZE / count * Math.log(2)));
+        return new BloomFilter(hashes, LongBuffer.allocate(words));
+    }
+
+    @NotNull
+    static BloomFilter read(@NotNull final ByteBuffer section) {
+        final ByteBuffer buffer = section.duplicate();
+        final int hashes = buffer.getInt();
+        final int words = buffer.getInt();
+        final LongBuffer bits = buffer.slice().asLongBuffer();
+        bits.limit(words);
+        return new BloomFilter(hashes, bits);
+    }
+
+    int sizeInBytes() {
+        return Integer.BYTES * 2 + bits.limit() * Long.BYTES;
+    }
+
+    void writeTo(@NotNull final ByteBuffer to) {
+        to.putInt(hashes);
+        to.putInt(bits.limit());
+        for (int i = 0; i < bits.limit(); i++) {
+            to.putLong(bits.get(i));
+        }
+    }
+
+    boolean mightContain(@NotNull final ByteBuffer key) {
+        return mightContain(hash(key));
+    }
+
+    private boolean mightContain(final long hash) {
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            final long bit = index(hash1 + i * hash2);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void put(final long hash) {
+        final int hash1 = (int) hash;
+        final int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashes; i++) {
+            final long bit = index(hash1 + i * hash2);
+            final int word = (int) (bit >>> 6);
+            bits.put(word, bits.get(word) | (1L << bit));
+        }
+    }
+
+    private long index(final int combined) {
+        return (combined & Integer.MAX_VALUE) % size;
+    }
+}
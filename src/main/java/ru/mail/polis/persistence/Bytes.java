@@ -1,6 +1,7 @@
 package ru.mail.polis.persistence;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public final class Bytes {
     private Bytes() {
@@ -27,4 +28,168 @@ public final class Bytes {
         duplicate.get(array);
         return array;
     }
+
+    /**
+     * Grow buffer so that it can hold more bytes.
+     * @param buffer buffer in write mode
+     * @param extra count of bytes to put
+     * @return the same buffer if it has enough space or the bigger copy
+     */
+    public static ByteBuffer ensureCapacity(final ByteBuffer buffer, final int extra) {
+        if (buffer.remaining() >= extra) {
+            return buffer;
+        }
+        final int capacity = Math.max(buffer.capacity() * 2, buffer.position() + extra);
+        final ByteBuffer result = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        return result.put(buffer);
+    }
+
+    /**
+     * Put unsigned LEB128 varint.
+     * @param to buffer to put
+     * @param value non negative value
+     */
+    public static void putVarInt(final ByteBuffer to, final int value) {
+        int rest = value;
+        while ((rest & ~0x7F) != 0) {
+            to.put((byte) ((rest & 0x7F) | 0x80));
+            rest >>>= 7;
+        }
+        to.put((byte) rest);
+    }
+
+    /**
+     * Get unsigned LEB128 varint at position of buffer.
+     * @param from buffer to read
+     * @return value
+     */
+    public static int getVarInt(final ByteBuffer from) {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = from.get();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    /**
+     * Get unsigned LEB128 varint at the offset of buffer.
+     * @param from buffer to read
+     * @param offset of the varint
+     * @return value
+     */
+    public static int getVarInt(final ByteBuffer from, final int offset) {
+        int result = 0;
+        int shift = 0;
+        int position = offset;
+        byte b;
+        do {
+            b = from.get(position++);
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    public static int varIntSize(final int value) {
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * Put unsigned LEB128 varint of up to 10 bytes.
+     * @param to buffer to put
+     * @param value treated as unsigned
+     */
+    public static void putVarLong(final ByteBuffer to, final long value) {
+        long rest = value;
+        while ((rest & ~0x7FL) != 0) {
+            to.put((byte) ((rest & 0x7F) | 0x80));
+            rest >>>= 7;
+        }
+        to.put((byte) rest);
+    }
+
+    /**
+     * Get unsigned LEB128 varint of up to 10 bytes at position of buffer.
+     * @param from buffer to read
+     * @return value
+     */
+    public static long getVarLong(final ByteBuffer from) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = from.get();
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    public static int varLongSize(final long value) {
+        return (Long.SIZE - Long.numberOfLeadingZeros(value | 1) + 6) / 7;
+    }
+
+    /**
+     * Maps signed values to unsigned ones, so that small magnitudes get short varints.
+     * @param value signed value
+     * @return zigzag encoded value
+     */
+    public static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    public static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Compares the key with the region as {@link ByteBuffer#compareTo(ByteBuffer)} does, without slicing.
+     * @param key buffer from position to limit
+     * @param data buffer of the region
+     * @param offset of the region in data
+     * @param length of the region
+     * @return result of key.compareTo(region)
+     */
+    public static int compare(final ByteBuffer key, final ByteBuffer data, final int offset, final int length) {
+        if (key.hasArray() && data.hasArray()) {
+            final int from = key.arrayOffset() + key.position();
+            final int start = data.arrayOffset() + offset;
+            return Arrays.compare(key.array(), from, from + key.remaining(), data.array(), start, start + length);
+        }
+        final int common = Math.min(key.remaining(), length);
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(key.get(key.position() + i), data.get(offset + i));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(key.remaining(), length);
+    }
+
+    /**
+     * Compares the key with the first bytes of the array as {@link ByteBuffer#compareTo(ByteBuffer)} does.
+     * @param key buffer from position to limit
+     * @param bytes array of the other key
+     * @param length of the other key
+     * @return result of key.compareTo(ByteBuffer.wrap(bytes, 0, length))
+     */
+    public static int compare(final ByteBuffer key, final byte[] bytes, final int length) {
+        if (key.hasArray()) {
+            final int from = key.arrayOffset() + key.position();
+            return Arrays.compare(key.array(), from, from + key.remaining(), bytes, 0, length);
+        }
+        final int common = Math.min(key.remaining(), length);
+        for (int i = 0; i < common; i++) {
+            final int cmp = Byte.compare(key.get(key.position() + i), bytes[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(key.remaining(), length);
+    }
 }
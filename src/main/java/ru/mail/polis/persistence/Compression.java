@@ -0,0 +1,117 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec of SSTable blocks, recorded in the footer flags of the file.
+ * Blocks of compressed tables start with type - Byte and rawSize - Integer,
+ * type is BLOCK_RAW when compression did not pay off for the block.
+ */
+public enum Compression {
+    NONE(0),
+    DEFLATE(1);
+
+    static final int BLOCK_HEADER = Byte.BYTES + Integer.BYTES;
+
+    private static final byte BLOCK_RAW = 0;
+    private static final byte BLOCK_DEFLATE = 1;
+
+    private final int id;
+
+    Compression(final int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @NotNull
+    static Compression of(final int id) {
+        for (final Compression compression : values()) {
+            if (compression.id == id) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown compression: " + id);
+    }
+
+    /**
+     * Compresses blocks of one table, not thread safe.
+     */
+    static final class Compressor {
+        private final Deflater deflater = new Deflater();
+        private ByteBuffer output = ByteBuffer.allocate(TableFormat.BLOCK_SIZE * 2);
+
+        /**
+         * Compresses the block and adds the header.
+         *
+         * @param raw encoded block
+         * @return compressed block, valid until the next call
+         */
+        @NotNull
+        ByteBuffer compress(@NotNull final ByteBuffer raw) {
+            final int rawSize = raw.remaining();
+            output.clear();
+            output = Bytes.ensureCapacity(output, BLOCK_HEADER + rawSize);
+            output.put(BLOCK_DEFLATE).putInt(rawSize);
+
+            deflater.reset();
+            deflater.setInput(raw.duplicate());
+            deflater.finish();
+            while (!deflater.finished() && output.position() < BLOCK_HEADER + rawSize) {
+                final ByteBuffer rest = output.slice().limit(BLOCK_HEADER + rawSize - output.position());
+                output.position(output.position() + deflater.deflate(rest));
+            }
+
+            if (!deflater.finished()) {
+                output.clear();
+                output.put(BLOCK_RAW).putInt(rawSize).put(raw.duplicate());
+            }
+            return output.flip();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Restores the block written by {@link Compressor}.
+     *
+     * @param block compressed block with the header
+     * @return raw block
+     * @throws IOException if the block is broken
+     */
+    @NotNull
+    static ByteBuffer decompress(@NotNull final ByteBuffer block) throws IOException {
+        final byte type = block.get(block.position());
+        final int rawSize = block.getInt(block.position() + Byte.BYTES);
+        final ByteBuffer payload = block.duplicate().position(block.position() + BLOCK_HEADER).slice();
+        if (type == BLOCK_RAW) {
+            return payload;
+        }
+
+        final ByteBuffer raw = ByteBuffer.allocate(rawSize);
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload);
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated block");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Broken block", e);
+        } finally {
+            inflater.end();
+        }
+        return raw.flip();
+    }
+}
@@ -0,0 +1,16 @@
+package ru.mail.polis.persistence;
+
+/**
+ * Policy of evicting blocks from the block cache.
+ */
+public enum EvictionPolicy {
+    /**
+     * Evicts the least recently used block.
+     */
+    LRU,
+
+    /**
+     * Approximates LRU with a reference bit per block, cheaper to keep on hits.
+     */
+    CLOCK
+}
@@ -1,12 +1,13 @@
 package ru.mail.polis.persistence;
 
+import com.google.common.util.concurrent.RateLimiter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.LongBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -14,63 +15,142 @@ import java.util.Iterator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-public class FileTable implements Table {
-    private final int rows;
-    private final LongBuffer offsets;
-    private final ByteBuffer cells;
+public abstract class FileTable implements Table, Closeable {
     private final File file;
 
+    FileTable(@NotNull final File file) {
+        this.file = file;
+    }
+
     /**
-     * Creates instance of FileTable and get data from file.
+     * Opens SSTable and chooses reader by the format of the file.
      *
      * @param file to get data
+     * @return table backed by the file
      * @throws IOException if was input or output errors
      */
-    public FileTable(@NotNull final File file) throws IOException {
-        this.file = file;
+    @NotNull
+    public static FileTable open(@NotNull final File file) throws IOException {
+        return open(file, new BlockCache(0));
+    }
+
+    @NotNull
+    static FileTable open(@NotNull final File file, @NotNull final BlockCache cache) throws IOException {
+        return open(file, cache, LSMConfig.DEFAULT);
+    }
 
+    /**
+     * Opens SSTable with the block cache shared by tables.
+     *
+     * @param file   to get data
+     * @param cache  of blocks
+     * @param config options of reading block-based tables, legacy ones are always mapped
+     * @return table backed by the file
+     * @throws IOException if was input or output errors
+     */
+    @NotNull
+    static FileTable open(@NotNull final File file,
+                          @NotNull final BlockCache cache,
+                          @NotNull final LSMConfig config) throws IOException {
+        if (isBlockFormat(file)) {
+            return new BlockFileTable(file, cache, config);
+        }
+        return new LegacyFileTable(file);
+    }
+
+    private static boolean isBlockFormat(@NotNull final File file) throws IOException {
         final long fileSize = file.length();
-        final ByteBuffer mapped;
+        if (fileSize < TableFormat.FOOTER_SIZE) {
+            return false;
+        }
         try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
-            assert fileSize <= Integer.MAX_VALUE;
-            mapped = fc.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize).order(ByteOrder.BIG_ENDIAN);
+            final ByteBuffer magic = ByteBuffer.allocate(Long.BYTES);
+            while (magic.hasRemaining()) {
+                if (fc.read(magic, fileSize - Long.BYTES + magic.position()) < 0) {
+                    return false;
+                }
+            }
+            return magic.getLong(0) == TableFormat.MAGIC;
         }
-        final long rowsValue = mapped.getLong((int) (fileSize - Long.BYTES));
-        assert rowsValue <= Integer.MAX_VALUE;
-        this.rows = (int) rowsValue;
+    }
+
+    @NotNull
+    @Override
+    public abstract Iterator<Cell> iterator(@NotNull ByteBuffer from);
 
-        final ByteBuffer offsetBuffer = mapped.duplicate();
-        offsetBuffer.position(mapped.limit() - Long.BYTES * rows - Long.BYTES);
-        offsetBuffer.limit(mapped.limit() - Long.BYTES);
-        this.offsets = offsetBuffer.slice().asLongBuffer();
+    /**
+     * Finds the cell with the key.
+     *
+     * @param key to find
+     * @return cell or null if the table has no such key
+     */
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final Iterator<Cell> cells = iterator(key);
+        if (!cells.hasNext()) {
+            return null;
+        }
+        final Cell cell = cells.next();
+        return cell.getKey().equals(key) ? cell : null;
+    }
 
-        final ByteBuffer cellBuffer = mapped.duplicate();
-        cellBuffer.limit(offsetBuffer.position());
-        this.cells = cellBuffer.slice();
+    /**
+     * Checks whether the table may have a cell with the key.
+     *
+     * @param key to check
+     * @return false if the key is definitely absent
+     */
+    public boolean mightContain(@NotNull final ByteBuffer key) {
+        return true;
     }
 
-    @Override
-    public long sizeInBytes() {
+    /**
+     * Checks whether the table may have cells with keys in the range.
+     *
+     * @param from lower bound, inclusive
+     * @param to   upper bound, inclusive, or null if unbounded
+     * @return false if the table has no keys in the range
+     */
+    public boolean mayOverlap(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        final TableStats stats = getStats();
+        return stats == null || stats.overlaps(from, to);
+    }
+
+    /**
+     * Provides stats of cells, if the table has them.
+     *
+     * @return stats or null for tables written without them
+     */
+    @Nullable
+    TableStats getStats() {
+        return null;
+    }
+
+    /**
+     * Verifies checksums of all blocks bypassing the block cache.
+     *
+     * @param limiter of bytes read per second
+     * @return count of corrupt blocks, always 0 for tables without checksums
+     * @throws InterruptedException if the thread is interrupted meanwhile
+     */
+    int scrub(@NotNull final RateLimiter limiter) throws InterruptedException {
         return 0;
     }
 
-    @NotNull
+    /**
+     * Releases resources of the table, iterators must not be used after that.
+     *
+     * @throws IOException if was input or output errors
+     */
     @Override
-    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
-        return new Iterator<>() {
-            int next = position(from);
-
-            @Override
-            public boolean hasNext() {
-                return next < rows;
-            }
+    public void close() throws IOException {
+        // Mapped tables have nothing to release
+    }
 
-            @Override
-            public Cell next() {
-                assert hasNext();
-                return cellAt(next++);
-            }
-        };
+    @Override
+    public long sizeInBytes() {
+        return 0;
     }
 
     @Override
@@ -83,63 +163,6 @@ public class FileTable implements Table {
         throw new UnsupportedOperationException("");
     }
 
-    private int position(final @NotNull ByteBuffer from) {
-        int left = 0;
-        int right = rows - 1;
-        while (left <= right) {
-            final int mid = left + (right - left) / 2;
-            final int cmp = from.compareTo(keyAt(mid));
-            if (cmp < 0) {
-                right = mid - 1;
-            } else if (cmp > 0) {
-                left = mid + 1;
-            } else {
-                return mid;
-            }
-        }
-        return left;
-    }
-
-    private ByteBuffer keyAt(final int i) {
-        assert 0 <= i && i < rows;
-        final long offset = offsets.get(i);
-        assert offset <= Integer.MAX_VALUE;
-        final int keySize = cells.getInt((int) offset);
-        final ByteBuffer key = cells.duplicate();
-        key.position((int) (offset + Integer.BYTES));
-        key.limit(key.position() + keySize);
-        return key.slice();
-    }
-
-    private Cell cellAt(final int i) {
-        assert 0 <= i && i < rows;
-        long offset = offsets.get(i);
-        assert offset <= Integer.MAX_VALUE;
-
-        final int keySize = cells.getInt((int) offset);
-        offset += Integer.BYTES;
-        final ByteBuffer key = cells.duplicate();
-        key.position((int) offset);
-        key.limit(key.position() + keySize);
-        offset += keySize;
-
-        final long timeStamp = cells.getLong((int) offset);
-        offset += Long.BYTES;
-
-        if (timeStamp < 0) {
-            return new Cell(key.slice(), Value.tombstone(-timeStamp));
-        }
-
-        final int valueSize = cells.getInt((int) offset);
-        offset += Integer.BYTES;
-        final ByteBuffer value = cells.duplicate();
-        value.position((int) offset);
-        value.limit(value.position() + valueSize)
-                .position((int) offset)
-                .limit((int) (offset + valueSize));
-        return new Cell(key.slice(), Value.of(timeStamp, value.slice()));
-    }
-
     public static int fromPath(final Path path) {
         return fromFileName(path.getFileName().toString());
     }
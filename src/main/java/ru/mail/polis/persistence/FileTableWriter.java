@@ -0,0 +1,403 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes sorted cells to the block-based SSTable described in {@link TableFormat}.
+ * Output is collected in a direct buffer and written once per {@link #OUTPUT_SIZE} bytes,
+ * hashes of keys for the Bloom filter are spilled to disk for huge tables.
+ * Index partitions are kept in memory until they exceed {@link LSMConfig#getFlatIndexLimit()},
+ * then they are spilled too and the table gets the partitioned index.
+ * Tables with the {@link ValueDictionary} hold back the first cells until their values
+ * make {@link #SAMPLE_FACTOR} times the size of the dictionary trained on them,
+ * but at most {@link #MAX_SAMPLES} cells, so tables of tombstones or separated values
+ * are not held back entirely.
+ */
+final class FileTableWriter implements Closeable {
+    static final int OUTPUT_SIZE = 1024 * 1024;
+    static final int SAMPLE_FACTOR = 8;
+    static final int MAX_SAMPLES = 16 * 1024;
+    private static final int INDEX_HEADER = Long.BYTES + Integer.BYTES;
+    private static final int TOP_INDEX_HEADER = Long.BYTES + Integer.BYTES * 2;
+    private static final String SUFFIX_HASHES = ".hashes";
+    private static final String SUFFIX_INDEX = ".index";
+
+    private final FileChannel channel;
+    private final LSMConfig config;
+    private final int flags;
+    private final BlockBuilder block;
+    private final Compression.Compressor compressor;
+    private final CRC32C checksum;
+    private final ByteBuffer checksumBytes = ByteBuffer.allocate(Integer.BYTES);
+    private final ByteBuffer output = ByteBuffer.allocateDirect(OUTPUT_SIZE);
+    private final LongSpillList keyHashes;
+    private final ValueLog.Appender values;
+    private final TableStats.Collector stats = new TableStats.Collector();
+    private final File indexSpill;
+    private final IndexPartition.Builder partition = new IndexPartition.Builder();
+    private final List<ByteBuffer> partitions = new ArrayList<>();
+    private final LearnedIndex.Builder learned;
+    private List<Cell> samples;
+    private long sampledBytes;
+    private long heldBytes;
+    private ValueDictionary dictionary;
+    private ValueDictionary.Compressor valueCompressor;
+    private FileChannel spilledPartitions;
+    private long partitionsSize;
+    private ByteBuffer topIndex = ByteBuffer.allocate(TableFormat.BLOCK_SIZE).position(TOP_INDEX_HEADER);
+    private int partitionCount;
+    private ByteBuffer directory = ByteBuffer.allocate(Integer.BYTES + TableFormat.DIRECTORY_ENTRY * 4)
+            .position(Integer.BYTES);
+    private ByteBuffer lastKey = ByteBuffer.allocate(0);
+    private long offset;
+    private long rows;
+    private int blocks;
+    private int sections;
+
+    FileTableWriter(@NotNull final File to, @NotNull final LSMConfig config) throws IOException {
+        this(to, config, null);
+    }
+
+    /**
+     * Creates writer which moves large values to the value log.
+     *
+     * @param to     file of the table
+     * @param config options of the format
+     * @param values appender of the value log or null to keep values inline
+     * @throws IOException If an I/O error occurs
+     */
+    FileTableWriter(@NotNull final File to,
+                    @NotNull final LSMConfig config,
+                    @Nullable final ValueLog.Appender values) throws IOException {
+        this.values = values;
+        this.channel = FileChannel.open(to.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.config = config;
+        int keys = config.isKeyPrefixCompression() ? TableFormat.FLAG_PREFIX_KEYS : 0;
+        if (config.isKeyPrefixCompression() && config.isBlockHashIndex()) {
+            keys |= TableFormat.FLAG_BLOCK_HASH;
+        }
+        if (config.isKeyPrefixCompression() && config.isCompactCells()) {
+            keys |= TableFormat.FLAG_COMPACT_CELLS;
+        }
+        if (config.isKeyPrefixCompression() && config.isCompactCells() && config.getValueDictionarySize() > 0) {
+            keys |= TableFormat.FLAG_VALUE_DICTIONARY;
+        }
+        if (config.isBlockChecksums()) {
+            keys |= TableFormat.FLAG_BLOCK_CHECKSUM;
+        }
+        this.flags = keys | config.getCompression().getId() << TableFormat.COMPRESSION_SHIFT;
+        this.block = new BlockBuilder(flags);
+        this.compressor = config.getCompression() == Compression.NONE ? null : new Compression.Compressor();
+        this.checksum = config.isBlockChecksums() ? new CRC32C() : null;
+        this.keyHashes = new LongSpillList(new File(to.getPath() + SUFFIX_HASHES));
+        this.indexSpill = new File(to.getPath() + SUFFIX_INDEX);
+        final int error = config.getLearnedIndexError();
+        this.learned = error == 0 ? null : new LearnedIndex.Builder(error);
+        this.samples = (flags & TableFormat.FLAG_VALUE_DICTIONARY) == 0 ? null : new ArrayList<>();
+    }
+
+    /**
+     * Appends the next cell, cells must come in ascending order of keys.
+     *
+     * @param cell to append
+     * @throws IOException If an I/O error occurs
+     */
+    void append(@NotNull final Cell cell) throws IOException {
+        final ByteBuffer key = cell.getKey();
+        final Cell placed = values == null ? cell : new Cell(key, values.place(cell.getValue()));
+        if (samples != null) {
+            sample(placed);
+            return;
+        }
+        writeCell(placed);
+    }
+
+    private void sample(@NotNull final Cell cell) throws IOException {
+        samples.add(cell);
+        final Value value = cell.getValue();
+        heldBytes += cell.getKey().remaining();
+        if (!value.isRemoved() && value.getPointer() == null) {
+            sampledBytes += value.getData().remaining();
+            heldBytes += value.getData().remaining();
+        }
+        // Large keys count too, the held back cells may be big without enough values to sample
+        final long target = (long) config.getValueDictionarySize() * SAMPLE_FACTOR;
+        if (sampledBytes >= target || heldBytes >= target * 2 || samples.size() >= MAX_SAMPLES) {
+            trainDictionary();
+        }
+    }
+
+    /**
+     * Trains the dictionary on the held back cells, whatever their values make, and writes them.
+     */
+    private void trainDictionary() throws IOException {
+        final List<ByteBuffer> sampledValues = new ArrayList<>(samples.size());
+        for (final Cell cell : samples) {
+            final Value value = cell.getValue();
+            if (!value.isRemoved() && value.getPointer() == null) {
+                sampledValues.add(value.getData());
+            }
+        }
+        dictionary = ValueDictionary.train(sampledValues, config.getValueDictionarySize());
+        valueCompressor = new ValueDictionary.Compressor(dictionary);
+        block.compressValues(valueCompressor);
+        final List<Cell> pending = samples;
+        samples = null;
+        for (final Cell cell : pending) {
+            writeCell(cell);
+        }
+    }
+
+    private void writeCell(@NotNull final Cell placed) throws IOException {
+        final ByteBuffer key = placed.getKey();
+        if (block.isEmpty()) {
+            final ByteBuffer separator = separator(lastKey, key);
+            if (!partition.isEmpty() && partition.sizeWith(separator) > TableFormat.BLOCK_SIZE) {
+                closePartition();
+            }
+            partition.add(offset, separator);
+            if (learned != null) {
+                learned.add(separator);
+            }
+            blocks++;
+        }
+
+        final long hash = BloomFilter.hash(key);
+        block.add(placed, hash);
+        keyHashes.add(hash);
+        stats.add(placed);
+        rows++;
+        lastKey = key;
+
+        if (block.size() >= TableFormat.BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Writes the rest of data, index and footer.
+     *
+     * @throws IOException If an I/O error occurs
+     */
+    void finish() throws IOException {
+        if (samples != null) {
+            trainDictionary();
+        }
+        if (!block.isEmpty()) {
+            writeBlock();
+        }
+
+        if (!partition.isEmpty()) {
+            closePartition();
+        }
+        if (spilledPartitions == null) {
+            writeSection(TableFormat.SECTION_INDEX, flatIndex());
+            if (learned != null) {
+                final ByteBuffer model = ByteBuffer.allocate(learned.sizeInBytes());
+                learned.writeTo(model);
+                writeSection(TableFormat.SECTION_LEARNED_INDEX, model.flip());
+            }
+        } else {
+            addSection(TableFormat.SECTION_INDEX_PARTITIONS, partitionsSize);
+            transfer(spilledPartitions, partitionsSize);
+            topIndex.putLong(0, rows).putInt(Long.BYTES, blocks).putInt(Long.BYTES + Integer.BYTES, partitionCount);
+            writeSection(TableFormat.SECTION_TOP_INDEX, topIndex.flip());
+        }
+
+        final BloomFilter bloom = BloomFilter.create(rows, config.getBloomFalsePositiveRate());
+        keyHashes.forEach(bloom::put);
+        final ByteBuffer bloomSection = ByteBuffer.allocate(bloom.sizeInBytes());
+        bloom.writeTo(bloomSection);
+        writeSection(TableFormat.SECTION_BLOOM, bloomSection.flip());
+
+        final ByteBuffer statsSection = ByteBuffer.allocate(stats.sizeInBytes());
+        stats.writeTo(statsSection);
+        writeSection(TableFormat.SECTION_STATS, statsSection.flip());
+
+        if ((flags & TableFormat.FLAG_COMPACT_CELLS) != 0) {
+            writeSection(TableFormat.SECTION_TIMESTAMP_BASE,
+                    ByteBuffer.allocate(Long.BYTES).putLong(0, block.getBaseTimeStamp()));
+        }
+        if (dictionary != null) {
+            final ByteBuffer dictionarySection = ByteBuffer.allocate(dictionary.sizeInBytes());
+            dictionary.writeTo(dictionarySection);
+            writeSection(TableFormat.SECTION_VALUE_DICTIONARY, dictionarySection.flip());
+        }
+
+        final long metaOffset = offset;
+        directory = Bytes.ensureCapacity(directory, TableFormat.FOOTER_SIZE);
+        directory.putInt(0, sections);
+        directory.putLong(metaOffset).putInt(flags).putLong(TableFormat.MAGIC);
+        write(directory.flip());
+        flush();
+    }
+
+    private void writeSection(final int type, @NotNull final ByteBuffer section) throws IOException {
+        addSection(type, section.remaining());
+        write(section);
+    }
+
+    private void addSection(final int type, final long length) {
+        directory = Bytes.ensureCapacity(directory, TableFormat.DIRECTORY_ENTRY);
+        directory.putInt(type).putLong(offset).putLong(length);
+        sections++;
+    }
+
+    /**
+     * Completes the partition of the index at the end of its last block.
+     */
+    private void closePartition() throws IOException {
+        final ByteBuffer data = partition.finish(offset);
+        final IndexPartition closed = new IndexPartition(data);
+        final ByteBuffer separator = closed.separator(0);
+        topIndex = Bytes.ensureCapacity(topIndex, Long.BYTES + Integer.BYTES * 3 + separator.remaining());
+        topIndex.putLong(partitionsSize)
+                .putInt(data.remaining())
+                .putInt(blocks - closed.count())
+                .putInt(separator.remaining())
+                .put(separator);
+        partitionsSize += data.remaining();
+        partitionCount++;
+
+        if (spilledPartitions == null) {
+            partitions.add(data);
+            if (partitionsSize <= config.getFlatIndexLimit()) {
+                return;
+            }
+            spilledPartitions = FileChannel.open(indexSpill.toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            for (final ByteBuffer pending : partitions) {
+                drain(spilledPartitions, pending);
+            }
+            partitions.clear();
+        } else {
+            drain(spilledPartitions, data);
+        }
+    }
+
+    private ByteBuffer flatIndex() {
+        ByteBuffer index = ByteBuffer.allocate((int) partitionsSize + INDEX_HEADER);
+        index.putLong(rows).putInt(blocks);
+        for (final ByteBuffer data : partitions) {
+            final IndexPartition closed = new IndexPartition(data);
+            for (int i = 0; i < closed.count(); i++) {
+                final ByteBuffer separator = closed.separator(i);
+                index = Bytes.ensureCapacity(index, Long.BYTES + Integer.BYTES + separator.remaining());
+                index.putLong(closed.offset(i)).putInt(separator.remaining()).put(separator);
+            }
+        }
+        return index.flip();
+    }
+
+    /**
+     * Shortest prefix of the key that is still greater than the previous one,
+     * so huge keys do not get into the index.
+     */
+    private ByteBuffer separator(@NotNull final ByteBuffer previous, @NotNull final ByteBuffer key) {
+        if (blocks == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        final int common = Math.min(previous.remaining(), key.remaining());
+        int length = 0;
+        while (length < common && previous.get(previous.position() + length) == key.get(key.position() + length)) {
+            length++;
+        }
+        final ByteBuffer separator = key.duplicate();
+        separator.limit(separator.position() + Math.min(length + 1, key.remaining()));
+        return separator;
+    }
+
+    private void writeBlock() throws IOException {
+        final ByteBuffer raw = block.finish();
+        final ByteBuffer stored = compressor == null ? raw : compressor.compress(raw);
+        if (checksum != null) {
+            checksum.reset();
+            checksum.update(stored.duplicate());
+            checksumBytes.clear().putInt(0, (int) checksum.getValue());
+        }
+        write(stored);
+        if (checksum != null) {
+            write(checksumBytes);
+        }
+    }
+
+    private void write(@NotNull final ByteBuffer buffer) throws IOException {
+        offset += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            if (output.position() == 0 && buffer.remaining() >= output.capacity()) {
+                // Nothing to gain from copying
+                drain(buffer);
+                return;
+            }
+            final int count = Math.min(output.remaining(), buffer.remaining());
+            output.put(buffer.duplicate().limit(buffer.position() + count));
+            buffer.position(buffer.position() + count);
+            if (!output.hasRemaining()) {
+                flush();
+            }
+        }
+    }
+
+    private void transfer(@NotNull final FileChannel from, final long size) throws IOException {
+        long position = 0;
+        while (position < size) {
+            if (!output.hasRemaining()) {
+                flush();
+            }
+            final int count = (int) Math.min(output.remaining(), size - position);
+            final int read = from.read(output.limit(output.position() + count), position);
+            output.limit(output.capacity());
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + indexSpill);
+            }
+            position += read;
+        }
+        offset += size;
+    }
+
+    private void flush() throws IOException {
+        drain(output.flip());
+        output.clear();
+    }
+
+    private void drain(@NotNull final ByteBuffer buffer) throws IOException {
+        drain(channel, buffer);
+    }
+
+    private static void drain(@NotNull final FileChannel to, @NotNull final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            to.write(buffer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (compressor != null) {
+            compressor.end();
+        }
+        if (valueCompressor != null) {
+            valueCompressor.end();
+        }
+        try {
+            keyHashes.close();
+            if (spilledPartitions != null) {
+                spilledPartitions.close();
+                Files.delete(indexSpill.toPath());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
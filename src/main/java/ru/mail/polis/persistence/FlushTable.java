@@ -1,7 +1,12 @@
 package ru.mail.polis.persistence;
 
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
 public class FlushTable {
     private final int generation;
+    private final List<Integer> generations;
     private final Table table;
     private final boolean poisonPill;
 
@@ -13,7 +18,23 @@ public class FlushTable {
      * @param poisonPill is death for dao?
      */
     public FlushTable(final Table table, final int generation, final boolean poisonPill) {
+        this(table, generation, List.of(generation), poisonPill);
+    }
+
+    /**
+     * Memtables flushed together to one table.
+     *
+     * @param table       merged memtables
+     * @param generation  of the table, the latest of merged generations
+     * @param generations of merged memtables
+     * @param poisonPill  is death for dao?
+     */
+    public FlushTable(final Table table,
+                      final int generation,
+                      @NotNull final List<Integer> generations,
+                      final boolean poisonPill) {
         this.generation = generation;
+        this.generations = List.copyOf(generations);
         this.table = table;
         this.poisonPill = poisonPill;
     }
@@ -32,6 +53,16 @@ public class FlushTable {
         return generation;
     }
 
+    /**
+     * Generations of memtables in the table.
+     *
+     * @return generations in no particular order
+     */
+    @NotNull
+    public List<Integer> getGenerations() {
+        return generations;
+    }
+
     public Table getTable() {
         return table;
     }
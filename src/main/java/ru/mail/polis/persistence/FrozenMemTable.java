@@ -0,0 +1,167 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable copy of a memtable waiting for flush: keys and values of all cells packed
+ * into one array in the order of keys, with offsets and timestamps in primitive arrays.
+ * Takes 16 bytes per cell besides keys and values instead of several objects,
+ * lookups are binary searches.
+ */
+@ThreadSafe
+final class FrozenMemTable implements Table {
+    private final byte[] data;
+    // Start of the key of every cell and the end of the last value
+    private final int[] keys;
+    private final int[] values;
+    private final long[] timeStamps;
+    private final BitSet tombstones;
+
+    private FrozenMemTable(@NotNull final byte[] data,
+                           @NotNull final int[] keys,
+                           @NotNull final int[] values,
+                           @NotNull final long[] timeStamps,
+                           @NotNull final BitSet tombstones) {
+        this.data = data;
+        this.keys = keys;
+        this.values = values;
+        this.timeStamps = timeStamps;
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Copies cells of the table, which must not change meanwhile.
+     *
+     * @param table to copy
+     * @return frozen table or null if cells don't fit into an array
+     * @throws IOException If an I/O error occurs
+     */
+    @Nullable
+    static FrozenMemTable of(@NotNull final Table table) throws IOException {
+        long bytes = 0;
+        int count = 0;
+        for (final Iterator<Cell> cells = table.iterator(ByteBuffer.allocate(0)); cells.hasNext(); count++) {
+            final Cell cell = cells.next();
+            bytes += cell.getKey().remaining();
+            if (!cell.getValue().isRemoved()) {
+                bytes += cell.getValue().getData().remaining();
+            }
+            if (bytes > Integer.MAX_VALUE - Long.BYTES) {
+                return null;
+            }
+        }
+
+        final ByteBuffer data = ByteBuffer.allocate((int) bytes);
+        final int[] keys = new int[count + 1];
+        final int[] values = new int[count];
+        final long[] timeStamps = new long[count];
+        final BitSet tombstones = new BitSet(count);
+        final Iterator<Cell> cells = table.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < count; i++) {
+            final Cell cell = cells.next();
+            keys[i] = data.position();
+            data.put(cell.getKey().duplicate());
+            values[i] = data.position();
+            final Value value = cell.getValue();
+            timeStamps[i] = value.getTimeStamp();
+            if (value.isRemoved()) {
+                tombstones.set(i);
+            } else {
+                data.put(value.getData());
+            }
+        }
+        keys[count] = data.position();
+        return new FrozenMemTable(data.array(), keys, values, timeStamps, tombstones);
+    }
+
+    /**
+     * Heap taken by cells.
+     *
+     * @return bytes of the arrays
+     */
+    @Override
+    public long sizeInBytes() {
+        return data.length + (long) values.length * (Integer.BYTES * 2 + Long.BYTES);
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        final int start = search(from);
+        return new Iterator<>() {
+            private int next = start < 0 ? -start - 1 : start;
+
+            @Override
+            public boolean hasNext() {
+                return next < values.length;
+            }
+
+            @Override
+            public Cell next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return cell(next++);
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final int i = search(key);
+        return i < 0 ? null : cell(i);
+    }
+
+    @Override
+    public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+        throw new UnsupportedOperationException("Frozen memtable");
+    }
+
+    @Override
+    public void remove(@NotNull final ByteBuffer key) {
+        throw new UnsupportedOperationException("Frozen memtable");
+    }
+
+    /**
+     * Binary search of the key.
+     *
+     * @return index of the cell or -(insertion point) - 1
+     */
+    private int search(@NotNull final ByteBuffer key) {
+        final byte[] bytes = Bytes.toArray(key);
+        int low = 0;
+        int high = values.length - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int cmp = Arrays.compare(data, keys[mid], values[mid], bytes, 0, bytes.length);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -low - 1;
+    }
+
+    @NotNull
+    private Cell cell(final int i) {
+        final ByteBuffer key = ByteBuffer.wrap(data, keys[i], values[i] - keys[i]).slice().asReadOnlyBuffer();
+        if (tombstones.get(i)) {
+            return new Cell(key, Value.tombstone(timeStamps[i]));
+        }
+        final ByteBuffer value = ByteBuffer.wrap(data, values[i], keys[i + 1] - values[i]).slice().asReadOnlyBuffer();
+        return new Cell(key, Value.of(timeStamps[i], value));
+    }
+}
@@ -0,0 +1,145 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Part of the partitioned index of blocks, see {@link TableFormat#SECTION_INDEX_PARTITIONS}.
+ * Layout: count - Integer, count + 1 offsets of blocks - Long, the last one is the end
+ * of the last block, count ends of separators - Integer, then separator keys of blocks.
+ */
+final class IndexPartition {
+    private final ByteBuffer data;
+    private final int count;
+    private final int keys;
+
+    IndexPartition(@NotNull final ByteBuffer data) {
+        this.data = data;
+        this.count = data.getInt(0);
+        this.keys = Integer.BYTES + Long.BYTES * (count + 1) + Integer.BYTES * count;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * Offset of the block in the file.
+     *
+     * @param i block of the partition, count for the end of the last block
+     * @return offset
+     */
+    long offset(final int i) {
+        return offset(data, i);
+    }
+
+    static long offset(@NotNull final ByteBuffer data, final int i) {
+        return data.getLong(Integer.BYTES + Long.BYTES * i);
+    }
+
+    @NotNull
+    ByteBuffer separator(final int i) {
+        final int ends = Integer.BYTES + Long.BYTES * (count + 1);
+        final int start = i == 0 ? 0 : data.getInt(ends + Integer.BYTES * (i - 1));
+        final int end = data.getInt(ends + Integer.BYTES * i);
+        return data.duplicate().limit(keys + end).position(keys + start).slice();
+    }
+
+    /**
+     * Finds the last block which separator is not greater than the key, reading the partition in place.
+     * Separators are compared by 8-byte prefixes first, see {@link Separators#prefix(ByteBuffer)}.
+     *
+     * @param data   partition
+     * @param key    to look up
+     * @param prefix of the key
+     * @return block of the partition
+     */
+    static int blockFor(@NotNull final ByteBuffer data, @NotNull final ByteBuffer key, final long prefix) {
+        final int count = data.getInt(0);
+        final int ends = Integer.BYTES + Long.BYTES * (count + 1);
+        final int keys = ends + Integer.BYTES * count;
+        final long signed = prefix ^ Long.MIN_VALUE;
+        int left = 0;
+        int right = count - 1;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int start = keys + (mid == 0 ? 0 : data.getInt(ends + Integer.BYTES * (mid - 1)));
+            final int length = keys + data.getInt(ends + Integer.BYTES * mid) - start;
+            int cmp = Long.compare(signed, Separators.prefix(data, start, length) ^ Long.MIN_VALUE);
+            if (cmp == 0) {
+                cmp = Bytes.compare(key, data, start, length);
+            }
+            if (cmp < 0) {
+                right = mid - 1;
+            } else if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return Math.max(0, right);
+    }
+
+    /**
+     * Collects blocks of the next partition.
+     */
+    static final class Builder {
+        private long[] offsets = new long[64];
+        private int[] ends = new int[64];
+        private ByteBuffer keys = ByteBuffer.allocate(TableFormat.BLOCK_SIZE);
+        private int count;
+
+        boolean isEmpty() {
+            return count == 0;
+        }
+
+        /**
+         * Size of the partition with one more block.
+         *
+         * @param separator of the next block
+         * @return bytes
+         */
+        int sizeWith(@NotNull final ByteBuffer separator) {
+            return Integer.BYTES + Long.BYTES * (count + 2) + Integer.BYTES * (count + 1)
+                    + keys.position() + separator.remaining();
+        }
+
+        void add(final long offset, @NotNull final ByteBuffer separator) {
+            if (count == ends.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            keys = Bytes.ensureCapacity(keys, separator.remaining());
+            keys.put(separator.duplicate());
+            offsets[count] = offset;
+            ends[count] = keys.position();
+            count++;
+        }
+
+        /**
+         * Encodes the partition and resets the builder.
+         *
+         * @param end offset of the end of the last block
+         * @return partition
+         */
+        @NotNull
+        ByteBuffer finish(final long end) {
+            final int size = sizeWith(ByteBuffer.allocate(0)) - Long.BYTES - Integer.BYTES;
+            final ByteBuffer result = ByteBuffer.allocate(size);
+            result.putInt(count);
+            for (int i = 0; i < count; i++) {
+                result.putLong(offsets[i]);
+            }
+            result.putLong(end);
+            for (int i = 0; i < count; i++) {
+                result.putInt(ends[i]);
+            }
+            result.put(keys.flip());
+            keys.clear();
+            count = 0;
+            return result.flip();
+        }
+    }
+}
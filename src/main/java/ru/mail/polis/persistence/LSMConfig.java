@@ -0,0 +1,480 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Tuning of {@link LSMDao} and the SSTables it writes.
+ */
+public final class LSMConfig {
+    public static final LSMConfig DEFAULT = builder().build();
+
+    private final double bloomFalsePositiveRate;
+    private final boolean keyPrefixCompression;
+    private final boolean blockHashIndex;
+    private final boolean compactCells;
+    private final int valueDictionarySize;
+    private final int flatIndexLimit;
+    private final int learnedIndexError;
+    private final long positionalReadThreshold;
+    private final int readAhead;
+    private final boolean blockChecksums;
+    private final boolean verifyChecksums;
+    private final long scrubRate;
+    private final Compression compression;
+    private final long blockCacheSize;
+    private final EvictionPolicy blockCachePolicy;
+    private final long rowCacheSize;
+    private final int valueSeparationThreshold;
+    private final double valueLogGcRatio;
+    private final MemTableType memTableType;
+    private final boolean freezePendingMemTables;
+
+    private LSMConfig(@NotNull final Builder builder) {
+        this.bloomFalsePositiveRate = builder.bloomFalsePositiveRate;
+        this.keyPrefixCompression = builder.keyPrefixCompression;
+        this.blockHashIndex = builder.blockHashIndex;
+        this.compactCells = builder.compactCells;
+        this.valueDictionarySize = builder.valueDictionarySize;
+        this.flatIndexLimit = builder.flatIndexLimit;
+        this.learnedIndexError = builder.learnedIndexError;
+        this.positionalReadThreshold = builder.positionalReadThreshold;
+        this.readAhead = builder.readAhead;
+        this.blockChecksums = builder.blockChecksums;
+        this.verifyChecksums = builder.verifyChecksums;
+        this.scrubRate = builder.scrubRate;
+        this.compression = builder.compression;
+        this.blockCacheSize = builder.blockCacheSize;
+        this.blockCachePolicy = builder.blockCachePolicy;
+        this.rowCacheSize = builder.rowCacheSize;
+        this.valueSeparationThreshold = builder.valueSeparationThreshold;
+        this.valueLogGcRatio = builder.valueLogGcRatio;
+        this.memTableType = builder.memTableType;
+        this.freezePendingMemTables = builder.freezePendingMemTables;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public double getBloomFalsePositiveRate() {
+        return bloomFalsePositiveRate;
+    }
+
+    public boolean isKeyPrefixCompression() {
+        return keyPrefixCompression;
+    }
+
+    public boolean isBlockHashIndex() {
+        return blockHashIndex;
+    }
+
+    public boolean isCompactCells() {
+        return compactCells;
+    }
+
+    public int getValueDictionarySize() {
+        return valueDictionarySize;
+    }
+
+    public int getFlatIndexLimit() {
+        return flatIndexLimit;
+    }
+
+    public int getLearnedIndexError() {
+        return learnedIndexError;
+    }
+
+    public long getPositionalReadThreshold() {
+        return positionalReadThreshold;
+    }
+
+    /**
+     * Chooses how to read the table.
+     *
+     * @param tableSize bytes of the table file
+     * @return access mode for tables of this size
+     */
+    @NotNull
+    public AccessMode getAccessMode(final long tableSize) {
+        return tableSize >= positionalReadThreshold ? AccessMode.PREAD : AccessMode.MMAP;
+    }
+
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    public boolean isBlockChecksums() {
+        return blockChecksums;
+    }
+
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    public long getScrubRate() {
+        return scrubRate;
+    }
+
+    @NotNull
+    public Compression getCompression() {
+        return compression;
+    }
+
+    public long getBlockCacheSize() {
+        return blockCacheSize;
+    }
+
+    @NotNull
+    public EvictionPolicy getBlockCachePolicy() {
+        return blockCachePolicy;
+    }
+
+    public long getRowCacheSize() {
+        return rowCacheSize;
+    }
+
+    public int getValueSeparationThreshold() {
+        return valueSeparationThreshold;
+    }
+
+    public double getValueLogGcRatio() {
+        return valueLogGcRatio;
+    }
+
+    @NotNull
+    public MemTableType getMemTableType() {
+        return memTableType;
+    }
+
+    public boolean isFreezePendingMemTables() {
+        return freezePendingMemTables;
+    }
+
+    public static final class Builder {
+        private double bloomFalsePositiveRate = 0.01;
+        private boolean keyPrefixCompression = true;
+        private boolean blockHashIndex = true;
+        private boolean compactCells = true;
+        private int valueDictionarySize;
+        private int flatIndexLimit = 1024 * 1024;
+        private int learnedIndexError;
+        private long positionalReadThreshold = Long.MAX_VALUE;
+        private int readAhead = 256 * 1024;
+        private boolean blockChecksums = true;
+        private boolean verifyChecksums;
+        private long scrubRate;
+        private Compression compression = Compression.NONE;
+        private long blockCacheSize = 16 * 1024 * 1024;
+        private EvictionPolicy blockCachePolicy = EvictionPolicy.CLOCK;
+        private long rowCacheSize = 4 * 1024 * 1024;
+        private int valueSeparationThreshold = Integer.MAX_VALUE;
+        private double valueLogGcRatio = 0.5;
+        private MemTableType memTableType = MemTableType.HEAP;
+        private boolean freezePendingMemTables = true;
+
+        private Builder() {
+        }
+
+        /**
+         * Expected false positive rate of Bloom filters written with SSTables.
+         *
+         * @param rate between 0 and 1 exclusive
+         * @return this builder
+         */
+        @NotNull
+        public Builder bloomFalsePositiveRate(final double rate) {
+            if (rate <= 0.0 || rate >= 1.0) {
+                throw new IllegalArgumentException("False positive rate must be in (0, 1): " + rate);
+            }
+            this.bloomFalsePositiveRate = rate;
+            return this;
+        }
+
+        /**
+         * Store keys in blocks as the length of the prefix shared with
+         * the previous key and the rest of the key.
+         *
+         * @param enabled whether to compress keys
+         * @return this builder
+         */
+        @NotNull
+        public Builder keyPrefixCompression(final boolean enabled) {
+            this.keyPrefixCompression = enabled;
+            return this;
+        }
+
+        /**
+         * Append to blocks a hash table from keys to restart points,
+         * so point lookups skip the binary search inside the block.
+         * Needs {@link #keyPrefixCompression(boolean)}.
+         *
+         * @param enabled whether to index blocks by hashes of keys
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockHashIndex(final boolean enabled) {
+            this.blockHashIndex = enabled;
+            return this;
+        }
+
+        /**
+         * Encode timestamps of cells as varint deltas from the first timestamp of the table
+         * and sizes of values as varints instead of fixed Long and Integer.
+         * Needs {@link #keyPrefixCompression(boolean)}.
+         *
+         * @param enabled whether to write compact cells
+         * @return this builder
+         */
+        @NotNull
+        public Builder compactCells(final boolean enabled) {
+            this.compactCells = enabled;
+            return this;
+        }
+
+        /**
+         * Compress every inline value of new SSTables with the Deflate dictionary
+         * trained on the first values of the table, so that small similar values
+         * compress well and point reads inflate only their value.
+         * Needs {@link #compactCells(boolean)}. Disabled by default.
+         *
+         * @param bytes maximal size of the dictionary up to 32 KB, 0 disables compression of values
+         * @return this builder
+         */
+        @NotNull
+        public Builder valueDictionarySize(final int bytes) {
+            if (bytes < 0 || bytes > ValueDictionary.MAX_SIZE) {
+                throw new IllegalArgumentException("Dictionary size must be in [0, 32 KB]: " + bytes);
+            }
+            this.valueDictionarySize = bytes;
+            return this;
+        }
+
+        /**
+         * Tables which index of blocks is larger get the partitioned index,
+         * only its top level is kept on heap and partitions are read on demand.
+         *
+         * @param bytes maximal size of the index kept on heap as a whole
+         * @return this builder
+         */
+        @NotNull
+        public Builder flatIndexLimit(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative index limit: " + bytes);
+            }
+            this.flatIndexLimit = bytes;
+            return this;
+        }
+
+        /**
+         * Experimental: write with the flat index a piecewise-linear model
+         * of blocks of keys, lookups then search only around the predicted block.
+         * Pays off for uniformly distributed keys.
+         *
+         * @param blocks maximal error of the model, 0 to write no model
+         * @return this builder
+         */
+        @NotNull
+        public Builder learnedIndexError(final int blocks) {
+            if (blocks < 0) {
+                throw new IllegalArgumentException("Negative error: " + blocks);
+            }
+            this.learnedIndexError = blocks;
+            return this;
+        }
+
+        /**
+         * Tables of this size and larger are read with {@link AccessMode#PREAD}
+         * instead of being mapped. All tables are mapped by default.
+         *
+         * @param bytes minimal size of tables to read with positional reads, 0 for all tables
+         * @return this builder
+         */
+        @NotNull
+        public Builder positionalReadThreshold(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative threshold: " + bytes);
+            }
+            this.positionalReadThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Scans which go past their first block of a table get the next bytes
+         * of the table read in background, so they rarely wait for the disk.
+         *
+         * @param bytes to keep read ahead of scans, 0 disables read-ahead
+         * @return this builder
+         */
+        @NotNull
+        public Builder readAhead(final int bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative read-ahead: " + bytes);
+            }
+            this.readAhead = bytes;
+            return this;
+        }
+
+        /**
+         * Follow every block of new SSTables with its CRC32C.
+         *
+         * @param enabled whether to write checksums
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockChecksums(final boolean enabled) {
+            this.blockChecksums = enabled;
+            return this;
+        }
+
+        /**
+         * Check blocks read from tables against their checksums, corrupt blocks fail the read.
+         * Blocks served by the block cache are not checked again.
+         *
+         * @param enabled whether to verify blocks on reads
+         * @return this builder
+         */
+        @NotNull
+        public Builder verifyChecksums(final boolean enabled) {
+            this.verifyChecksums = enabled;
+            return this;
+        }
+
+        /**
+         * Verify checksums of all tables in background, from the oldest one,
+         * reading no more than this many bytes per second. Disabled by default.
+         *
+         * @param bytesPerSecond limit of reads of the scrubber, 0 disables it
+         * @return this builder
+         */
+        @NotNull
+        public Builder scrubRate(final long bytesPerSecond) {
+            if (bytesPerSecond < 0) {
+                throw new IllegalArgumentException("Negative scrub rate: " + bytesPerSecond);
+            }
+            this.scrubRate = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * Codec of blocks in new SSTables, existing ones keep their own.
+         *
+         * @param compression codec
+         * @return this builder
+         */
+        @NotNull
+        public Builder compression(@NotNull final Compression compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        /**
+         * Bytes of blocks to keep off-heap, see -XX:MaxDirectMemorySize.
+         *
+         * @param bytes capacity of the cache
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockCacheSize(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative cache size: " + bytes);
+            }
+            this.blockCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Eviction policy of the block cache.
+         *
+         * @param policy of eviction
+         * @return this builder
+         */
+        @NotNull
+        public Builder blockCachePolicy(@NotNull final EvictionPolicy policy) {
+            this.blockCachePolicy = policy;
+            return this;
+        }
+
+        /**
+         * Heap bytes of the latest values of hot keys to cache in front of getValue.
+         *
+         * @param bytes capacity of the cache, 0 disables it
+         * @return this builder
+         */
+        @NotNull
+        public Builder rowCacheSize(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("Negative cache size: " + bytes);
+            }
+            this.rowCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Values of this size and larger are moved to the value log on flush,
+         * so tables and their compaction carry only pointers.
+         * Disabled by default.
+         *
+         * @param bytes minimal size of separated values
+         * @return this builder
+         */
+        @NotNull
+        public Builder valueSeparationThreshold(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("Non-positive separation threshold: " + bytes);
+            }
+            this.valueSeparationThreshold = bytes;
+            return this;
+        }
+
+        /**
+         * Compaction moves live values out of value log segments
+         * which live bytes make less than this part of their size.
+         *
+         * @param ratio between 0 and 1
+         * @return this builder
+         */
+        @NotNull
+        public Builder valueLogGcRatio(final double ratio) {
+            if (ratio < 0.0 || ratio > 1.0) {
+                throw new IllegalArgumentException("Live ratio must be in [0, 1]: " + ratio);
+            }
+            this.valueLogGcRatio = ratio;
+            return this;
+        }
+
+        /**
+         * Structure of memtables. Off-heap memtables keep cells out of the heap
+         * until they are flushed, so large memtables don't burden GC.
+         * Radix tree memtables compare every byte of the key once per lookup
+         * instead of once per level of the skiplist.
+         *
+         * @param type of memtables
+         * @return this builder
+         */
+        @NotNull
+        public Builder memTableType(@NotNull final MemTableType type) {
+            this.memTableType = type;
+            return this;
+        }
+
+        /**
+         * Copy memtables waiting for flush in background into sorted arrays,
+         * which take less heap and are searched faster than skiplists.
+         * Off-heap memtables are kept as they are.
+         *
+         * @param enabled whether to freeze pending memtables
+         * @return this builder
+         */
+        @NotNull
+        public Builder freezePendingMemTables(final boolean enabled) {
+            this.freezePendingMemTables = enabled;
+            return this;
+        }
+
+        @NotNull
+        public LSMConfig build() {
+            return new LSMConfig(this);
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package ru.mail.polis.persistence;
 
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.RateLimiter;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import ru.mail.polis.NoSuchElemLite;
@@ -11,16 +13,21 @@ import ru.mail.polis.dao.Iters;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Stream;
 
 public class LSMDao implements DAO {
@@ -30,12 +37,21 @@ public class LSMDao implements DAO {
     private final Logger log = LoggerFactory.getLogger(this.getClass());
 
     private final File file;
+    private final LSMConfig config;
+    private final BlockCache blockCache;
+    private final ValueLog valueLog;
+    private final RowCache rowCache;
     private final MemoryTablePool memTablePool;
     private final NavigableMap<Integer, FileTable> fileTables;
 
     private static final int TABLES_LIMIT = 10;
 
     private final Thread flusherThread;
+    private final Thread scrubberThread;
+
+    private final LongAdder bloomSavedProbes = new LongAdder();
+    private final LongAdder rangeSkippedTables = new LongAdder();
+    private final LongAdder corruptBlocks = new LongAdder();
 
     /**
      * DAO Implementation.
@@ -46,8 +62,28 @@ public class LSMDao implements DAO {
      * @throws IOException when io error
      */
     public LSMDao(@NotNull final File file, final long flushLimit, final int queueCapacity) throws IOException {
+        this(file, flushLimit, queueCapacity, LSMConfig.DEFAULT);
+    }
+
+    /**
+     * DAO Implementation with tuned storage.
+     *
+     * @param file          baseFile
+     * @param flushLimit    max heap
+     * @param queueCapacity capacity of queue
+     * @param config        options of storage
+     * @throws IOException when io error
+     */
+    public LSMDao(@NotNull final File file,
+                  final long flushLimit,
+                  final int queueCapacity,
+                  @NotNull final LSMConfig config) throws IOException {
         assert flushLimit >= 0L;
         this.file = file;
+        this.config = config;
+        this.blockCache = new BlockCache(config.getBlockCacheSize(), config.getBlockCachePolicy());
+        this.valueLog = new ValueLog(file);
+        this.rowCache = new RowCache(config.getRowCacheSize());
         this.fileTables = new ConcurrentSkipListMap<>();
         final AtomicInteger generation = new AtomicInteger(0);
         try (Stream<Path> walk = Files.walk(file.toPath(), 1)) {
@@ -61,54 +97,179 @@ public class LSMDao implements DAO {
                             if (currentGeneration >= generation.get()) {
                                 generation.set(currentGeneration);
                             }
-                            fileTables.put(currentGeneration, new FileTable(path.toFile()));
+                            fileTables.put(currentGeneration, open(path.toFile()));
                         } catch (IOException e) {
                             log.error("Something go wrong in reading SSTables, ", e);
                         }
                     });
         }
 
-        memTablePool = new MemoryTablePool(flushLimit, generation.addAndGet(1), queueCapacity);
+        final boolean freeze = config.isFreezePendingMemTables()
+                && config.getMemTableType() != MemTableType.OFF_HEAP;
+        memTablePool = new MemoryTablePool(flushLimit, generation.addAndGet(1), queueCapacity,
+                config.getMemTableType()::create, freeze);
 
         flusherThread = new FlusherThread();
         flusherThread.start();
+        if (config.getScrubRate() > 0) {
+            scrubberThread = new ScrubberThread(config.getScrubRate());
+            scrubberThread.start();
+        } else {
+            scrubberThread = null;
+        }
     }
 
     @NotNull
     @Override
     public Iterator<Record> iterator(@NotNull final ByteBuffer from) throws IOException {
-        return Iterators.transform(aliveCells(from), cell -> {
+        return records(aliveCells(from, null));
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Record> range(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) throws IOException {
+        if (to == null) {
+            return iterator(from);
+        }
+
+        if (from.compareTo(to) > 0) {
+            return Iters.empty();
+        }
+
+        final Record bound = Record.of(to, ByteBuffer.allocate(0));
+        return Iters.until(records(aliveCells(from, to)), bound);
+    }
+
+    private Iterator<Record> records(@NotNull final Iterator<Cell> cells) {
+        return Iterators.transform(cells, cell -> {
             assert cell != null;
-            return Record.of(cell.getKey(), cell.getValue().getData());
+            return Record.of(cell.getKey(), valueLog.resolve(cell.getValue()).getData());
         });
     }
 
     @Override
     public Value getValue(final ByteBuffer from) throws IOException {
-        final List<Iterator<Cell>> iterators = new ArrayList<>();
-        iterators.add(fileTablesIterator(from));
-        iterators.add(memTablePool.iterator(from));
-
-        final Iterator<Cell> cellIterator = Iters.collapseEquals(
-                Iterators.mergeSorted(iterators, Cell.COMPARATOR),
-                Cell::getKey
-        );
-
-        if (!cellIterator.hasNext()) {
-            return Value.absent();
+        final long stamp = rowCache.stamp(from);
+        final Value cached = rowCache.get(from);
+        if (cached != null) {
+            return cached;
         }
+        final Value value = lookup(from);
+        rowCache.put(from, value, stamp);
+        return value;
+    }
 
-        final Cell next = cellIterator.next();
-        if (next.getKey().equals(from)) {
-            return next.getValue();
+    private Value lookup(@NotNull final ByteBuffer from) throws IOException {
+        // Memtables have the latest writes
+        final Cell memCell = memTablePool.get(from);
+        if (memCell != null) {
+            return valueLog.resolve(memCell.getValue());
         }
-        return Value.absent();
+        Value latest = null;
+        for (final FileTable ssTable : this.fileTables.values()) {
+            if (!ssTable.mayOverlap(from, from)) {
+                rangeSkippedTables.increment();
+            } else if (ssTable.mightContain(from)) {
+                final Cell cell = ssTable.get(from);
+                // Values are ordered from the newest one, resolved while the table keeps its value log segments
+                if (cell != null && (latest == null || cell.getValue().compareTo(latest) < 0)) {
+                    latest = valueLog.resolve(cell.getValue());
+                }
+            } else {
+                bloomSavedProbes.increment();
+            }
+        }
+        return latest == null ? Value.absent() : latest;
+    }
+
+    /**
+     * Part of getValue calls served by the row cache.
+     *
+     * @return hit rate since start, 0 if there were no calls
+     */
+    public double getRowCacheHitRate() {
+        final long hits = rowCache.getHits();
+        final long requests = hits + rowCache.getMisses();
+        return requests == 0 ? 0.0 : (double) hits / requests;
     }
 
-    private Iterator<Cell> fileTablesIterator(@NotNull final ByteBuffer from) {
+    /**
+     * Heap taken by cached rows, estimated.
+     *
+     * @return bytes of keys and values with overhead
+     */
+    public long getRowCacheSize() {
+        return rowCache.sizeInBytes();
+    }
+
+    /**
+     * Count of SSTable lookups skipped because Bloom filter rejected the key.
+     *
+     * @return saved probes since start
+     */
+    public long getBloomSavedProbes() {
+        return bloomSavedProbes.sum();
+    }
+
+    /**
+     * Count of SSTables skipped because their key range did not match the request.
+     *
+     * @return skipped tables since start
+     */
+    public long getRangeSkippedTables() {
+        return rangeSkippedTables.sum();
+    }
+
+    /**
+     * Count of blocks read from the block cache.
+     *
+     * @return hits since start
+     */
+    public long getBlockCacheHits() {
+        return blockCache.getHits();
+    }
+
+    /**
+     * Count of blocks read from tables bypassing the cache.
+     *
+     * @return misses since start
+     */
+    public long getBlockCacheMisses() {
+        return blockCache.getMisses();
+    }
+
+    /**
+     * Count of blocks which checksums did not match, found by the scrubber.
+     *
+     * @return corrupt blocks found since start
+     */
+    public long getCorruptBlocks() {
+        return corruptBlocks.sum();
+    }
+
+    /**
+     * Bytes of values kept in the value log, including the dead ones not collected yet.
+     *
+     * @return size of value log segments
+     */
+    public long getValueLogSize() {
+        return valueLog.sizeInBytes();
+    }
+
+    private Iterator<Cell> fileTablesIterator(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        return fileTablesIterator(fileTables.values(), from, to);
+    }
+
+    private Iterator<Cell> fileTablesIterator(@NotNull final Collection<FileTable> tables,
+                                              @NotNull final ByteBuffer from,
+                                              @Nullable final ByteBuffer to) {
         final List<Iterator<Cell>> iterators = new ArrayList<>();
-        for (final FileTable ssTable : this.fileTables.values()) {
-            iterators.add(ssTable.iterator(from));
+        for (final FileTable ssTable : tables) {
+            if (ssTable.mayOverlap(from, to)) {
+                iterators.add(ssTable.iterator(from));
+            } else {
+                rangeSkippedTables.increment();
+            }
         }
 
         return Iters.collapseEquals(
@@ -117,9 +278,10 @@ public class LSMDao implements DAO {
         );
     }
 
-    private Iterator<Cell> aliveCells(@NotNull final ByteBuffer from) throws IOException {
+    private Iterator<Cell> aliveCells(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to)
+            throws IOException {
         final List<Iterator<Cell>> iterators = new ArrayList<>();
-        iterators.add(fileTablesIterator(from));
+        iterators.add(fileTablesIterator(from, to));
         iterators.add(memTablePool.iterator(from));
         //noinspection UnstableApiUsage
         final Iterator<Cell> cellIterator = Iters.collapseEquals(
@@ -138,11 +300,17 @@ public class LSMDao implements DAO {
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
         memTablePool.upsert(key, value);
+        rowCache.invalidate(key);
     }
 
     @Override
     public void remove(@NotNull final ByteBuffer key) {
         memTablePool.remove(key);
+        rowCache.invalidate(key);
+    }
+
+    private FileTable open(@NotNull final File table) throws IOException {
+        return FileTable.open(table, blockCache, config);
     }
 
     private void flush(final FlushTable tableToFlush) throws IOException {
@@ -154,11 +322,15 @@ public class LSMDao implements DAO {
             final String filename = PREFIX_FILE + generation + SUFFIX_DAT;
 
             final File tmp = new File(file, tempFilename);
-            Table.write(memIterator, tmp);
-            final File dest = new File(file, filename);
-            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
-            fileTables.put(generation, new FileTable(dest));
-            memTablePool.flushed(generation);
+            try (ValueLog.Appender values = valueLog.appender(config.getValueSeparationThreshold())) {
+                Table.write(memIterator, tmp, config, values);
+                values.seal();
+                final File dest = new File(file, filename);
+                Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                fileTables.put(generation, open(dest));
+                values.commit();
+            }
+            memTablePool.flushed(tableToFlush);
         }
 
         if (fileTables.size() > TABLES_LIMIT) {
@@ -168,26 +340,38 @@ public class LSMDao implements DAO {
 
     @Override
     public void compact() throws IOException {
-        final int generation = memTablePool.getLastFlushedGeneration().get();
+        final NavigableMap<Integer, FileTable> sources = new TreeMap<>(fileTables);
+        // Not below the sources, lookups visit tables by ascending generation
+        final int generation = sources.isEmpty()
+                ? memTablePool.getLastFlushedGeneration().get()
+                : Math.max(memTablePool.getLastFlushedGeneration().get(), sources.lastKey());
 
         final String tempFilename = PREFIX_FILE + generation + SUFFIX_TMP;
         final String filename = PREFIX_FILE + generation + SUFFIX_DAT;
 
-        final Iterator<Cell> cellIterator = fileTablesIterator(ByteBuffer.allocate(0));
+        final Iterator<Cell> cellIterator = fileTablesIterator(sources.values(), ByteBuffer.allocate(0), null);
 
         final File tmp = new File(file, tempFilename);
-        Table.write(cellIterator, tmp);
-        final File dest = new File(file, filename);
-        Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        try (ValueLog.Appender values = valueLog.compaction(
+                config.getValueSeparationThreshold(), config.getValueLogGcRatio())) {
+            Table.write(cellIterator, tmp, config, values);
+            values.seal();
+            final File dest = new File(file, filename);
+            Files.move(tmp.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
 
-        fileTables.remove(generation);
+            // The compacted table is published before the sources are dropped and replaces the last one,
+            // so lookups meanwhile see every cell and the row cache gets only the latest values
+            fileTables.put(generation, open(dest));
 
-        for (final FileTable fileTable : fileTables.values()) {
-            Files.delete(fileTable.getFile().toPath());
+            // Tables are not closed, iterators may still read them
+            for (final Map.Entry<Integer, FileTable> source : sources.entrySet()) {
+                if (source.getKey() != generation) {
+                    fileTables.remove(source.getKey(), source.getValue());
+                    Files.delete(source.getValue().getFile().toPath());
+                }
+            }
+            values.commit(sources.values());
         }
-
-        fileTables.clear();
-        fileTables.put(generation, new FileTable(dest));
         memTablePool.flushed(generation);
     }
 
@@ -200,6 +384,21 @@ public class LSMDao implements DAO {
             Thread.currentThread().interrupt();
         }
         flusherThread.interrupt();
+        if (scrubberThread != null) {
+            scrubberThread.interrupt();
+            try {
+                scrubberThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (final FileTable fileTable : fileTables.values()) {
+            try {
+                fileTable.close();
+            } catch (IOException e) {
+                log.error("Can't close {}", fileTable.getFile(), e);
+            }
+        }
     }
 
     private class FlusherThread extends Thread {
@@ -229,4 +428,45 @@ public class LSMDao implements DAO {
             }
         }
     }
+
+    private class ScrubberThread extends Thread {
+        private static final long PAUSE_MILLIS = 60_000L;
+
+        @SuppressWarnings("UnstableApiUsage")
+        private final RateLimiter limiter;
+
+        @SuppressWarnings("UnstableApiUsage")
+        ScrubberThread(final long bytesPerSecond) {
+            super("Scrubber thread");
+            setDaemon(true);
+            this.limiter = RateLimiter.create(bytesPerSecond);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    // Oldest tables first, tables deleted by compaction meanwhile are still readable
+                    for (final FileTable fileTable : fileTables.values()) {
+                        scrub(fileTable);
+                    }
+                    Thread.sleep(PAUSE_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void scrub(@NotNull final FileTable fileTable) throws InterruptedException {
+            try {
+                final int corrupt = fileTable.scrub(limiter);
+                if (corrupt > 0) {
+                    corruptBlocks.add(corrupt);
+                    log.error("Found {} corrupt blocks in {}", corrupt, fileTable.getFile());
+                }
+            } catch (UncheckedIOException e) {
+                log.error("Can't scrub {}", fileTable.getFile(), e);
+            }
+        }
+    }
 }
@@ -0,0 +1,173 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Experimental piecewise-linear model from keys to blocks, see {@link TableFormat#SECTION_LEARNED_INDEX}.
+ * Keys are taken as their numeric prefixes, see {@link Separators#prefix(ByteBuffer)}.
+ * Each segment predicts blocks of its separators with at most the error,
+ * so a lookup evaluates the model and binary searches only a few separators around.
+ * Layout: error - Integer, segments - Integer, then for every segment
+ * first key - Long, first block - Integer, slope - Double.
+ */
+final class LearnedIndex {
+    private static final int SEGMENT = Long.BYTES + Integer.BYTES + Double.BYTES;
+
+    private final int error;
+    private final long[] keys;
+    private final int[] blocks;
+    private final double[] slopes;
+
+    private LearnedIndex(final int error,
+                         @NotNull final long[] keys,
+                         @NotNull final int[] blocks,
+                         @NotNull final double[] slopes) {
+        this.error = error;
+        this.keys = keys;
+        this.blocks = blocks;
+        this.slopes = slopes;
+    }
+
+    @NotNull
+    static LearnedIndex read(@NotNull final ByteBuffer section) {
+        final ByteBuffer buffer = section.duplicate();
+        final int error = buffer.getInt();
+        final int count = buffer.getInt();
+        final long[] keys = new long[count];
+        final int[] blocks = new int[count];
+        final double[] slopes = new double[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = buffer.getLong();
+            blocks[i] = buffer.getInt();
+            slopes[i] = buffer.getDouble();
+        }
+        return new LearnedIndex(error, keys, blocks, slopes);
+    }
+
+    private static double unsigned(final long value) {
+        return value >= 0 ? value : ((value >>> 1) | (value & 1)) * 2.0;
+    }
+
+    int segments() {
+        return keys.length;
+    }
+
+    /**
+     * Finds the last block which separator is not greater than the key.
+     *
+     * @param key        to look up
+     * @param separators of all blocks the model was fitted to
+     * @return block
+     */
+    int blockFor(@NotNull final ByteBuffer key, @NotNull final Separators separators) {
+        final int last = separators.size() - 1;
+        final long prefix = Separators.prefix(key);
+        int segment = 0;
+        int right = keys.length - 1;
+        while (segment < right) {
+            final int mid = (segment + right + 1) >>> 1;
+            if (Long.compareUnsigned(keys[mid], prefix) <= 0) {
+                segment = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        final double predicted = blocks[segment] + slopes[segment] * unsigned(prefix - keys[segment]);
+        final int position = (int) Math.max(0, Math.min(last, predicted));
+
+        // Keys between separators and shared prefixes may fall out of the error
+        int step = error + 1;
+        int from = Math.max(0, position - step);
+        int to = Math.min(last, position + step);
+        while (from > 0 && separators.compare(key, prefix, from) < 0) {
+            to = from;
+            from = Math.max(0, from - step);
+            step *= 2;
+        }
+        while (to < last && separators.compare(key, prefix, to + 1) >= 0) {
+            from = to + 1;
+            to = Math.min(last, to + step);
+            step *= 2;
+        }
+        return separators.floor(key, prefix, from, to);
+    }
+
+    /**
+     * Fits the model to separators of blocks in order with the shrinking cone:
+     * a segment goes on while some slope keeps all its points within the error.
+     */
+    static final class Builder {
+        private final int error;
+        private long[] keys = new long[16];
+        private int[] blocks = new int[16];
+        private double[] slopes = new double[16];
+        private int count;
+        private int points;
+        private double minSlope;
+        private double maxSlope;
+
+        Builder(final int error) {
+            this.error = error;
+        }
+
+        /**
+         * Adds the separator of the next block.
+         *
+         * @param separator of the block
+         */
+        void add(@NotNull final ByteBuffer separator) {
+            final long key = Separators.prefix(separator);
+            final int block = points++;
+            if (count > 0) {
+                final int segment = count - 1;
+                final double dx = unsigned(key - keys[segment]);
+                final int dy = block - blocks[segment];
+                if (dx == 0.0) {
+                    if (dy <= error) {
+                        return;
+                    }
+                } else {
+                    final double low = (dy - error) / dx;
+                    final double high = (dy + error) / dx;
+                    if (low <= maxSlope && high >= minSlope) {
+                        minSlope = Math.max(minSlope, low);
+                        maxSlope = Math.min(maxSlope, high);
+                        return;
+                    }
+                }
+                close();
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                blocks = Arrays.copyOf(blocks, count * 2);
+                slopes = Arrays.copyOf(slopes, count * 2);
+            }
+            keys[count] = key;
+            blocks[count] = block;
+            count++;
+            minSlope = 0.0;
+            maxSlope = Double.POSITIVE_INFINITY;
+        }
+
+        private void close() {
+            slopes[count - 1] = maxSlope == Double.POSITIVE_INFINITY ? minSlope : (minSlope + maxSlope) / 2;
+        }
+
+        int sizeInBytes() {
+            return Integer.BYTES * 2 + SEGMENT * count;
+        }
+
+        void writeTo(@NotNull final ByteBuffer buffer) {
+            if (count > 0) {
+                close();
+            }
+            buffer.putInt(error).putInt(count);
+            for (int i = 0; i < count; i++) {
+                buffer.putLong(keys[i]).putInt(blocks[i]).putDouble(slopes[i]);
+            }
+        }
+    }
+}
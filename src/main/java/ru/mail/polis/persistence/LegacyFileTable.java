@@ -0,0 +1,87 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Reader of SSTables written before the block format:
+ * cells followed by one offset per row and the count of rows.
+ */
+final class LegacyFileTable extends FileTable {
+    private final int rows;
+    private final long offsetsStart;
+    private final MappedFile mapped;
+
+    /**
+     * Creates instance of FileTable and get data from file.
+     *
+     * @param file to get data
+     * @throws IOException if was input or output errors
+     */
+    LegacyFileTable(@NotNull final File file) throws IOException {
+        super(file);
+
+        this.mapped = new MappedFile(file);
+        final long rowsValue = mapped.getLong(mapped.size() - Long.BYTES);
+        assert rowsValue <= Integer.MAX_VALUE;
+        this.rows = (int) rowsValue;
+        this.offsetsStart = mapped.size() - Long.BYTES * rows - Long.BYTES;
+    }
+
+    @NotNull
+    @Override
+    public Iterator<Cell> iterator(@NotNull final ByteBuffer from) {
+        return new Iterator<>() {
+            int next = position(from);
+
+            @Override
+            public boolean hasNext() {
+                return next < rows;
+            }
+
+            @Override
+            public Cell next() {
+                assert hasNext();
+                return cellAt(next++);
+            }
+        };
+    }
+
+    private int position(final @NotNull ByteBuffer from) {
+        int left = 0;
+        int right = rows - 1;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int cmp = from.compareTo(keyAt(mid));
+            if (cmp < 0) {
+                right = mid - 1;
+            } else if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return left;
+    }
+
+    private long offsetAt(final int i) {
+        return i == rows ? offsetsStart : mapped.getLong(offsetsStart + (long) Long.BYTES * i);
+    }
+
+    private ByteBuffer keyAt(final int i) {
+        assert 0 <= i && i < rows;
+        final long offset = offsetAt(i);
+        final int keySize = mapped.getInt(offset);
+        return mapped.slice(offset + Integer.BYTES, keySize);
+    }
+
+    private Cell cellAt(final int i) {
+        assert 0 <= i && i < rows;
+        final long offset = offsetAt(i);
+        return Block.cellAt(mapped.slice(offset, (int) (offsetAt(i + 1) - offset)), 0);
+    }
+}
@@ -0,0 +1,94 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.function.LongConsumer;
+
+/**
+ * Append only list of primitive longs.
+ * Keeps one chunk on heap and spills full chunks to the file,
+ * which is created on the first spill and removed on close.
+ */
+final class LongSpillList implements Closeable {
+    static final int CHUNK = 128 * 1024;
+
+    private final File spill;
+    private final long[] chunk;
+    private final ByteBuffer buffer;
+    private FileChannel channel;
+    private int count;
+    private long spilled;
+
+    LongSpillList(@NotNull final File spill) {
+        this(spill, CHUNK);
+    }
+
+    LongSpillList(@NotNull final File spill, final int chunkSize) {
+        this.spill = spill;
+        this.chunk = new long[chunkSize];
+        this.buffer = ByteBuffer.allocateDirect(chunkSize * Long.BYTES);
+    }
+
+    long size() {
+        return spilled + count;
+    }
+
+    void add(final long value) throws IOException {
+        if (count == chunk.length) {
+            if (channel == null) {
+                channel = FileChannel.open(spill.toPath(), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            buffer.clear();
+            buffer.asLongBuffer().put(chunk);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            spilled += count;
+            count = 0;
+        }
+        chunk[count++] = value;
+    }
+
+    /**
+     * Passes all values to the consumer in order of addition.
+     *
+     * @param consumer of values
+     * @throws IOException If an I/O error occurs
+     */
+    void forEach(@NotNull final LongConsumer consumer) throws IOException {
+        long position = 0;
+        while (position < spilled * Long.BYTES) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Truncated " + spill);
+                }
+                position += read;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                consumer.accept(buffer.getLong());
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            consumer.accept(chunk[i]);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            Files.delete(spill.toPath());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read only file mapped by segments, so it may be larger than 2 GB.
+ * Reads inside one segment are slices of the mapping, the rare ones
+ * crossing the border of segments are copied to heap.
+ */
+final class MappedFile implements ReadableFile {
+    static final int SEGMENT_SIZE = 1 << 30;
+    private static final int PAGE_SIZE = 4096;
+
+    private final long size;
+    private final int segmentSize;
+    private final ByteBuffer[] segments;
+    // Keeps reads of prefetch from being eliminated
+    private volatile int touched;
+
+    MappedFile(@NotNull final File file) throws IOException {
+        this(file, SEGMENT_SIZE);
+    }
+
+    MappedFile(@NotNull final File file, final int segmentSize) throws IOException {
+        this.size = file.length();
+        this.segmentSize = segmentSize;
+        this.segments = new ByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < segments.length; i++) {
+                final long position = (long) i * segmentSize;
+                final long length = Math.min(segmentSize, size - position);
+                segments[i] = fc.map(FileChannel.MapMode.READ_ONLY, position, length).order(ByteOrder.BIG_ENDIAN);
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Provides bytes of the file.
+     *
+     * @param offset in the file
+     * @param length count of bytes
+     * @return buffer with bytes from position to limit
+     */
+    @NotNull
+    @Override
+    public ByteBuffer slice(final long offset, final int length) {
+        assert 0 <= offset && offset + length <= size;
+        final int segment = (int) (offset / segmentSize);
+        final int position = (int) (offset % segmentSize);
+        if (position + length <= segmentSize) {
+            return segments[segment].duplicate().position(position).limit(position + length).slice();
+        }
+
+        final ByteBuffer copy = ByteBuffer.allocate(length);
+        long from = offset;
+        while (copy.hasRemaining()) {
+            final int current = (int) (from / segmentSize);
+            final int start = (int) (from % segmentSize);
+            final int count = Math.min(copy.remaining(), segments[current].limit() - start);
+            copy.put(segments[current].duplicate().position(start).limit(start + count));
+            from += count;
+        }
+        return copy.flip();
+    }
+
+    /**
+     * Touches every page of the region, slices of mappings can't be {@link java.nio.MappedByteBuffer#load()}ed.
+     */
+    @Override
+    public void prefetch(final long offset, final long length) {
+        final long end = Math.min(size, offset + length);
+        int sum = 0;
+        for (long position = offset - offset % PAGE_SIZE; position < end; position += PAGE_SIZE) {
+            sum += segments[(int) (position / segmentSize)].get((int) (position % segmentSize));
+        }
+        touched = sum;
+    }
+
+    @Override
+    public int getInt(final long offset) {
+        final int position = (int) (offset % segmentSize);
+        if (position + Integer.BYTES <= segmentSize) {
+            return segments[(int) (offset / segmentSize)].getInt(position);
+        }
+        return slice(offset, Integer.BYTES).getInt(0);
+    }
+
+    @Override
+    public long getLong(final long offset) {
+        final int position = (int) (offset % segmentSize);
+        if (position + Long.BYTES <= segmentSize) {
+            return segments[(int) (offset / segmentSize)].getLong(position);
+        }
+        return slice(offset, Long.BYTES).getLong(0);
+    }
+
+    @Override
+    public void close() {
+        // Mappings are released by GC
+    }
+}
@@ -2,6 +2,7 @@ package ru.mail.polis.persistence;
 
 import com.google.common.collect.Iterators;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.annotation.concurrent.ThreadSafe;
 import java.nio.ByteBuffer;
@@ -33,6 +34,13 @@ public class MemTable implements Table {
                 });
     }
 
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) {
+        final Value value = map.get(key);
+        return value == null ? null : new Cell(key, value);
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
         final Value previous = map.put(key, Value.of(value));
@@ -0,0 +1,45 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Structure of memtables, see {@link LSMConfig.Builder#memTableType(MemTableType)}.
+ */
+public enum MemTableType {
+    /**
+     * Skiplist of heap buffers.
+     */
+    HEAP {
+        @NotNull
+        @Override
+        Table create() {
+            return new MemTable();
+        }
+    },
+
+    /**
+     * Skiplist of keys and values in off-heap slabs, see -XX:MaxDirectMemorySize.
+     */
+    OFF_HEAP {
+        @NotNull
+        @Override
+        Table create() {
+            return new ArenaMemTable();
+        }
+    },
+
+    /**
+     * Adaptive radix tree of key bytes, suits keys sharing long prefixes.
+     * Keeps copies of keys and values, writes to different subtrees run in parallel.
+     */
+    ART {
+        @NotNull
+        @Override
+        Table create() {
+            return new ArtMemTable();
+        }
+    };
+
+    @NotNull
+    abstract Table create();
+}
@@ -1,31 +1,50 @@
 package ru.mail.polis.persistence;
 
 import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import ru.mail.polis.dao.Iters;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class MemoryTablePool implements Table, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MemoryTablePool.class);
 
+    // Writes hold the read lock, so memtables are immutable once pending
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
 
-    private volatile MemTable current;
-    private final NavigableMap<Integer, MemTable> pendingFlush;
-    private final BlockingQueue<FlushTable> flushQueue;
+    private final Supplier<Table> memTables;
+    // Null unless memtables are frozen, stopped by close
+    @Nullable
+    private final ExecutorService freezer;
+    private volatile Table current;
+    private final NavigableMap<Integer, Table> pendingFlush;
+    // Generations rather than memtables, so frozen memtables replace the originals
+    private final BlockingQueue<Integer> flushQueue;
+    private volatile int lastGeneration = -1;
 
     private final long memFlushThreshHold;
 
@@ -43,11 +62,41 @@ public class MemoryTablePool implements Table, Closeable {
      * @param queueCapacity      capacity of queue
      */
     public MemoryTablePool(final long memFlushThreshHold, final int startGeneration, final int queueCapacity) {
+        this(memFlushThreshHold, startGeneration, queueCapacity, MemTable::new, false);
+    }
+
+    /**
+     * Pool of memtables of the given structure.
+     *
+     * @param memFlushThreshHold when flush to disk
+     * @param startGeneration    begin generation
+     * @param queueCapacity      capacity of queue
+     * @param memTables          factory of empty memtables
+     * @param freeze             whether to replace memtables waiting for flush with {@link FrozenMemTable}
+     */
+    public MemoryTablePool(final long memFlushThreshHold,
+                           final int startGeneration,
+                           final int queueCapacity,
+                           @NotNull final Supplier<Table> memTables,
+                           final boolean freeze) {
+        this(memFlushThreshHold, startGeneration, memTables, freeze, new ArrayBlockingQueue<>(queueCapacity));
+    }
+
+    MemoryTablePool(final long memFlushThreshHold,
+                    final int startGeneration,
+                    @NotNull final Supplier<Table> memTables,
+                    final boolean freeze,
+                    @NotNull final BlockingQueue<Integer> flushQueue) {
+        this.memTables = memTables;
+        this.freezer = freeze ? new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("memtable-freezer-%d").build(),
+                new ThreadPoolExecutor.DiscardPolicy()) : null;
         this.memFlushThreshHold = memFlushThreshHold;
         this.generation = startGeneration;
         this.pendingFlush = new ConcurrentSkipListMap<>();
-        this.current = new MemTable();
-        this.flushQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.current = memTables.get();
+        this.flushQueue = flushQueue;
     }
 
     @Override
@@ -55,7 +104,7 @@ public class MemoryTablePool implements Table, Closeable {
         lock.readLock().lock();
         try {
             long size = current.sizeInBytes();
-            size += pendingFlush.values().stream().mapToLong(MemTable::sizeInBytes).sum();
+            size += pendingFlush.values().stream().mapToLong(Table::sizeInBytes).sum();
             return size;
         } finally {
             lock.readLock().unlock();
@@ -78,17 +127,60 @@ public class MemoryTablePool implements Table, Closeable {
             lock.readLock().unlock();
         }
 
+        return merge(list);
+    }
+
+    /**
+     * Merges cells of memtables keeping the latest cell of every key.
+     */
+    @NotNull
+    private static Iterator<Cell> merge(@NotNull final List<Iterator<Cell>> iterators) {
         //noinspection UnstableApiUsage
-        return Iters.collapseEquals(Iterators.mergeSorted(list, Cell.COMPARATOR),
+        return Iters.collapseEquals(Iterators.mergeSorted(iterators, Cell.COMPARATOR),
                 Cell::getKey);
     }
 
+    /**
+     * Finds the latest cell of the key in memtables, from the current one to the oldest pending one.
+     *
+     * @param key to find
+     * @return cell or null if memtables have no such key
+     * @throws IOException If an I/O error occurs
+     */
+    @Nullable
+    @Override
+    public Cell get(@NotNull final ByteBuffer key) throws IOException {
+        lock.readLock().lock();
+        try {
+            final Cell cell = current.get(key);
+            if (cell != null) {
+                return cell;
+            }
+            for (final Table table : pendingFlush.descendingMap().values()) {
+                final Cell pending = table.get(key);
+                if (pending != null) {
+                    return pending;
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     @Override
     public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
         if (stop.get()) {
             throw new IllegalStateException("Database closed");
         }
-        current.upsert(key, value);
+        lock.readLock().lock();
+        try {
+            current.upsert(key, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
         syncAddToFlush();
     }
 
@@ -97,12 +189,40 @@ public class MemoryTablePool implements Table, Closeable {
         if (stop.get()) {
             throw new IllegalStateException("Database closed");
         }
-        current.remove(key);
+        lock.readLock().lock();
+        try {
+            current.remove(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.readLock().unlock();
+        }
         syncAddToFlush();
     }
 
+    /**
+     * Waits for memtables to flush and takes all of them queued by now,
+     * so bursts of writes are flushed to one table with overwrites collapsed.
+     *
+     * Generations are queued after the swap of memtables, so they may come out of order.
+     *
+     * @return memtables merged, possibly frozen, and the latest generation of them
+     * @throws InterruptedException if interrupted while waiting
+     */
     public FlushTable toFlush() throws InterruptedException {
-        return flushQueue.take();
+        final List<Integer> generations = new ArrayList<>();
+        generations.add(flushQueue.take());
+        flushQueue.drainTo(generations);
+        final int generation = Collections.max(generations);
+        final boolean poisonPill = generations.contains(lastGeneration);
+        if (generations.size() == 1) {
+            return new FlushTable(pendingFlush.get(generation), generation, poisonPill);
+        }
+        final List<Table> tables = new ArrayList<>(generations.size());
+        for (final int queued : generations) {
+            tables.add(pendingFlush.get(queued));
+        }
+        return new FlushTable(new MergedTables(tables), generation, generations, poisonPill);
     }
 
     /**
@@ -111,13 +231,29 @@ public class MemoryTablePool implements Table, Closeable {
      * @param generation that generation
      */
     public void flushed(final int generation) {
+        flushed(List.of(generation));
+    }
+
+    /**
+     * Mark memtables that were flushed together.
+     *
+     * @param flushed table of them
+     */
+    public void flushed(@NotNull final FlushTable flushed) {
+        flushed(flushed.getGenerations());
+    }
+
+    private void flushed(@NotNull final List<Integer> generations) {
         lock.writeLock().lock();
         try {
-            pendingFlush.remove(generation);
+            for (final int generation : generations) {
+                pendingFlush.remove(generation);
+            }
         } finally {
             lock.writeLock().unlock();
         }
 
+        final int generation = Collections.max(generations);
         if (generation > lastFlushedGeneration.get()) {
             lastFlushedGeneration.set(generation);
         }
@@ -129,23 +265,29 @@ public class MemoryTablePool implements Table, Closeable {
 
     private void syncAddToFlush() {
         if (current.sizeInBytes() > memFlushThreshHold) {
-            FlushTable toFlush = null;
+            Table toFlush = null;
+            int toFlushGeneration = 0;
 
             lock.writeLock().lock();
             try {
                 if (current.sizeInBytes() > memFlushThreshHold) {
-
-                    toFlush = new FlushTable(current, generation);
+                    toFlush = current;
+                    toFlushGeneration = generation;
                     pendingFlush.put(generation, current);
                     generation++;
-                    current = new MemTable();
+                    current = memTables.get();
                 }
             } finally {
                 lock.writeLock().unlock();
             }
             if (toFlush != null) {
+                if (freezer != null) {
+                    final Table table = toFlush;
+                    final int frozenGeneration = toFlushGeneration;
+                    freezer.execute(() -> freeze(frozenGeneration, table));
+                }
                 try {
-                    flushQueue.put(toFlush);
+                    flushQueue.put(toFlushGeneration);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
@@ -153,17 +295,38 @@ public class MemoryTablePool implements Table, Closeable {
         }
     }
 
+    /**
+     * Replaces the memtable waiting for flush with its compact copy, unless it is flushed already.
+     */
+    private void freeze(final int generation, @NotNull final Table table) {
+        if (pendingFlush.get(generation) != table) {
+            return;
+        }
+        try {
+            final Table frozen = FrozenMemTable.of(table);
+            if (frozen != null) {
+                pendingFlush.replace(generation, table, frozen);
+            }
+        } catch (IOException e) {
+            log.warn("Can't freeze memtable of generation {}", generation, e);
+        }
+    }
+
     @Override
     public void close() {
         if (!stop.compareAndSet(false, true)) {
             return;
         }
-        final FlushTable toFlush;
+        if (freezer != null) {
+            freezer.shutdownNow();
+        }
+        final int toFlush;
 
         lock.writeLock().lock();
         try {
             pendingFlush.put(generation, current);
-            toFlush = new FlushTable(current, generation, true);
+            toFlush = generation;
+            lastGeneration = generation;
         } finally {
             lock.writeLock().unlock();
         }
@@ -174,4 +337,40 @@ public class MemoryTablePool implements Table, Closeable {
             Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Read only view of memtables flushed together.
+     */
+    private static final class MergedTables implements Table {
+        private final List<Table> tables;
+
+        MergedTables(@NotNull final List<Table> tables) {
+            this.tables = tables;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return tables.stream().mapToLong(Table::sizeInBytes).sum();
+        }
+
+        @NotNull
+        @Override
+        public Iterator<Cell> iterator(@NotNull final ByteBuffer from) throws IOException {
+            final List<Iterator<Cell>> iterators = new ArrayList<>(tables.size());
+            for (final Table table : tables) {
+                iterators.add(table.iterator(from));
+            }
+            return merge(iterators);
+        }
+
+        @Override
+        public void upsert(@NotNull final ByteBuffer key, @NotNull final ByteBuffer value) {
+            throw new UnsupportedOperationException("Memtables being flushed");
+        }
+
+        @Override
+        public void remove(@NotNull final ByteBuffer key) {
+            throw new UnsupportedOperationException("Memtables being flushed");
+        }
+    }
 }
@@ -0,0 +1,137 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Two-level index of blocks of large tables, see {@link TableFormat#SECTION_TOP_INDEX}.
+ * The top level is copied to heap, partitions are read through the block cache,
+ * so the memory taken by the index does not grow with the table.
+ */
+final class PartitionedIndex {
+    private final ReadableFile data;
+    private final BlockCache cache;
+    private final int table;
+    private final int blocks;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] firstBlocks;
+    private final Separators separators;
+
+    /**
+     * Loads the top level of the index.
+     *
+     * @param top        section of the top level
+     * @param partitions offset of the section of partitions
+     * @param data       file of the table
+     * @param cache      of blocks
+     * @param table      id of the table in the cache
+     */
+    PartitionedIndex(@NotNull final ByteBuffer top,
+                     final long partitions,
+                     @NotNull final ReadableFile data,
+                     @NotNull final BlockCache cache,
+                     final int table) {
+        this.data = data;
+        this.cache = cache;
+        this.table = table;
+
+        // Keep the top level resident
+        final ByteBuffer buffer = ByteBuffer.allocate(top.remaining()).put(top.duplicate()).flip();
+        // Skip count of rows
+        buffer.getLong();
+        this.blocks = buffer.getInt();
+        final int count = buffer.getInt();
+        this.offsets = new long[count];
+        this.lengths = new int[count];
+        this.firstBlocks = new int[count];
+        final ByteBuffer[] keys = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = partitions + buffer.getLong();
+            lengths[i] = buffer.getInt();
+            firstBlocks[i] = buffer.getInt();
+            final int keySize = buffer.getInt();
+            keys[i] = buffer.slice().limit(keySize);
+            buffer.position(buffer.position() + keySize);
+        }
+        this.separators = new Separators(keys);
+    }
+
+    int blocks() {
+        return blocks;
+    }
+
+    /**
+     * Finds the last block which separator is not greater than the key.
+     *
+     * @param key to look up
+     * @return block of the table
+     */
+    int blockFor(@NotNull final ByteBuffer key) {
+        final long prefix = Separators.prefix(key);
+        final int partition = separators.floor(key);
+        return firstBlocks[partition] + read(partition, buffer -> IndexPartition.blockFor(buffer, key, prefix));
+    }
+
+    /**
+     * Provides the stored block.
+     *
+     * @param block  of the table
+     * @param pooled whether to acquire the buffer from the file, see {@link ReadableFile#acquire(long, int)}
+     * @return block as it is in the file
+     */
+    @NotNull
+    ByteBuffer block(final int block, final boolean pooled) {
+        final int p = partitionOf(block);
+        final int i = block - firstBlocks[p];
+        return read(p, partition -> {
+            final long offset = IndexPartition.offset(partition, i);
+            final int length = (int) (IndexPartition.offset(partition, i + 1) - offset);
+            return pooled ? data.acquire(offset, length) : data.slice(offset, length);
+        });
+    }
+
+    /**
+     * Provides the offset of the block in the file.
+     *
+     * @param block of the table, {@link #blocks()} for the end of blocks
+     * @return offset of the block
+     */
+    long offset(final int block) {
+        final int p = partitionOf(block);
+        return read(p, partition -> IndexPartition.offset(partition, block - firstBlocks[p]));
+    }
+
+    /**
+     * Finds the last partition which first block is not greater than the block.
+     */
+    private int partitionOf(final int block) {
+        int left = 0;
+        int right = firstBlocks.length - 1;
+        while (left < right) {
+            final int mid = (left + right + 1) >>> 1;
+            if (firstBlocks[mid] <= block) {
+                left = mid;
+            } else {
+                right = mid - 1;
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Reads the partition in place, see {@link BlockCache#read}.
+     */
+    private <T> T read(final int i, @NotNull final BlockCache.Reader<T> reader) {
+        try {
+            // Keys past blocks of the table do not clash with them in the cache
+            final long key = BlockCache.key(table, blocks + i);
+            return cache.read(key, true, () -> data.slice(offsets[i], lengths[i]), reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read index partition " + i, e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * File read with {@link FileChannel#read(ByteBuffer, long)}, so that its pages
+ * are not mapped and the memory of the process stays under control.
+ * Short-lived reads get direct buffers of {@link #POOLED_SIZE} bytes from the pool shared by all files.
+ * Iterators may outlive the table in the DAO, so the channel is also closed once the file is unreachable.
+ * Read-ahead pending for the closed file is skipped.
+ */
+final class PreadFile implements ReadableFile {
+    static final int POOLED_SIZE = BlockCache.SLOT_SIZE;
+    private static final int POOL_CAPACITY = 64;
+    private static final ArrayBlockingQueue<ByteBuffer> POOL = new ArrayBlockingQueue<>(POOL_CAPACITY);
+    private static final int PREFETCH_CHUNK = 64 * 1024;
+    // Owned by threads of read-ahead only
+    private static final ThreadLocal<ByteBuffer> PREFETCH_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(PREFETCH_CHUNK));
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final Cleaner.Cleanable cleanable;
+    private volatile boolean closed;
+
+    PreadFile(@NotNull final File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+        this.cleanable = CLEANER.register(this, new Closer(channel));
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer slice(final long offset, final int length) {
+        return read(ByteBuffer.allocate(length), offset);
+    }
+
+    @NotNull
+    @Override
+    public ByteBuffer acquire(final long offset, final int length) {
+        if (length > POOLED_SIZE) {
+            return slice(offset, length);
+        }
+        ByteBuffer buffer = POOL.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(POOLED_SIZE);
+        }
+        return read(buffer.limit(length), offset);
+    }
+
+    @Override
+    public void release(@NotNull final ByteBuffer buffer) {
+        if (buffer.isDirect() && buffer.capacity() == POOLED_SIZE) {
+            POOL.offer(buffer.clear());
+        }
+    }
+
+    /**
+     * Reads the region into a scratch buffer, so that it is left in the page cache.
+     */
+    @Override
+    public void prefetch(final long offset, final long length) {
+        final ByteBuffer buffer = PREFETCH_BUFFER.get();
+        final long end = Math.min(size, offset + length);
+        for (long position = offset; position < end && !closed; position += PREFETCH_CHUNK) {
+            buffer.clear().limit((int) Math.min(PREFETCH_CHUNK, end - position));
+            try {
+                read(buffer, position);
+            } catch (UncheckedIOException e) {
+                // Closed meanwhile
+                if (!closed) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getInt(final long offset) {
+        return slice(offset, Integer.BYTES).getInt(0);
+    }
+
+    @Override
+    public long getLong(final long offset) {
+        return slice(offset, Long.BYTES).getLong(0);
+    }
+
+    private ByteBuffer read(@NotNull final ByteBuffer buffer, final long offset) {
+        assert 0 <= offset && offset + buffer.remaining() <= size;
+        try {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                final int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Can't read " + buffer.remaining() + " bytes at " + position);
+                }
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read " + file, e);
+        }
+        return buffer.flip();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        cleanable.clean();
+    }
+
+    private static final class Closer implements Runnable {
+        private final FileChannel channel;
+
+        Closer(@NotNull final FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
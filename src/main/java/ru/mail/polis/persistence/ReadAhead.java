@@ -0,0 +1,60 @@
+package ru.mail.polis.persistence;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background reads of the regions of tables ahead of sequential scans,
+ * so the next blocks are in the page cache by the time the scan gets to them.
+ * Read-ahead is only a hint: requests are dropped when the threads fall behind.
+ */
+final class ReadAhead {
+    private static final Logger log = LoggerFactory.getLogger(ReadAhead.class);
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 64;
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+            THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("read-ahead-%d").build(),
+            new ThreadPoolExecutor.DiscardPolicy());
+    private static final LongAdder BYTES = new LongAdder();
+
+    private ReadAhead() {
+        // Not instantiable
+    }
+
+    /**
+     * Schedules the read of the region.
+     *
+     * @param file   of the table
+     * @param offset of the region
+     * @param length of the region
+     */
+    static void submit(@NotNull final ReadableFile file, final long offset, final long length) {
+        EXECUTOR.execute(() -> {
+            try {
+                file.prefetch(offset, length);
+                BYTES.add(length);
+            } catch (UncheckedIOException e) {
+                log.debug("Can't read ahead {} bytes at {}", length, offset, e);
+            }
+        });
+    }
+
+    /**
+     * Bytes read ahead since start.
+     *
+     * @return count of bytes
+     */
+    static long getBytes() {
+        return BYTES.sum();
+    }
+}
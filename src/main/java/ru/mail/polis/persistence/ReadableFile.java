@@ -0,0 +1,57 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * Read only access to the file of a table, see {@link AccessMode}.
+ */
+interface ReadableFile extends Closeable {
+    long size();
+
+    /**
+     * Provides bytes of the file, the buffer may be kept by the caller.
+     *
+     * @param offset in the file
+     * @param length count of bytes
+     * @return buffer with bytes from position to limit
+     */
+    @NotNull
+    ByteBuffer slice(long offset, int length);
+
+    /**
+     * Provides bytes of the file until {@link #release(ByteBuffer)}.
+     *
+     * @param offset in the file
+     * @param length count of bytes
+     * @return buffer with bytes from position to limit
+     */
+    @NotNull
+    default ByteBuffer acquire(final long offset, final int length) {
+        return slice(offset, length);
+    }
+
+    /**
+     * Returns the buffer which is not used anymore.
+     *
+     * @param buffer provided by {@link #acquire(long, int)}
+     */
+    default void release(@NotNull final ByteBuffer buffer) {
+        // Nothing to reuse by default
+    }
+
+    /**
+     * Brings the region into memory without keeping it, see {@link ReadAhead}.
+     * Does nothing once the file is closed.
+     *
+     * @param offset in the file
+     * @param length count of bytes
+     */
+    void prefetch(long offset, long length);
+
+    int getInt(long offset);
+
+    long getLong(long offset);
+}
@@ -0,0 +1,326 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of the latest values of hot keys bounded by bytes, W-TinyLFU style:
+ * new entries get into the small LRU window, and an entry leaving the window
+ * replaces the LRU entry of the main part only if it is more frequent according
+ * to the {@link FrequencySketch}. So one-off reads do not wash out hot keys.
+ * Lookups are lock-free: hits are recorded in lossy buffers striped by thread,
+ * which are replayed to the sketch and the LRU order under the lock by the thread
+ * filling a buffer or by the next put. Absent keys are not cached.
+ * Writes invalidate keys and bump the stamp of their stripe, values looked up
+ * before the write are not cached then.
+ */
+@ThreadSafe
+final class RowCache {
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int STRIPES = 1024;
+    private static final int WINDOW_PERCENT = 1;
+    private static final int READ_STRIPES = 16;
+    private static final int READ_BUFFER = 32;
+
+    private final long capacity;
+    private final long windowCapacity;
+    private final AtomicLongArray stamps = new AtomicLongArray(STRIPES);
+    private final Map<ByteBuffer, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicReferenceArray<Entry> reads = new AtomicReferenceArray<>(READ_STRIPES * READ_BUFFER);
+    private final AtomicLongArray readCounts = new AtomicLongArray(READ_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final Lock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private final LinkedHashMap<ByteBuffer, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("lock")
+    private final LinkedHashMap<ByteBuffer, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    @GuardedBy("lock")
+    private final FrequencySketch sketch;
+    @GuardedBy("lock")
+    private long windowSize;
+    @GuardedBy("lock")
+    private long mainSize;
+
+    /**
+     * Cached copy of the key and its value.
+     */
+    private static final class Entry {
+        private final ByteBuffer key;
+        private final Value value;
+        private final long hash;
+        private final long weight;
+
+        Entry(@NotNull final ByteBuffer key, @NotNull final Value value) {
+            this.key = key;
+            this.value = value;
+            this.hash = BloomFilter.hash(key);
+            final long data = value.state() == Value.State.PRESENT ? value.getData().remaining() : 0;
+            this.weight = ENTRY_OVERHEAD + key.remaining() + data;
+        }
+    }
+
+    RowCache(final long capacity) {
+        this.capacity = capacity;
+        this.windowCapacity = Math.max(capacity * WINDOW_PERCENT / 100, Math.min(capacity, 64 * 1024));
+        this.sketch = new FrequencySketch(capacity / ENTRY_OVERHEAD);
+    }
+
+    private static int stripe(@NotNull final ByteBuffer key) {
+        final int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (STRIPES - 1);
+    }
+
+    /**
+     * Stamp to pass to {@link #put(ByteBuffer, Value, long)}, taken before the lookup of the value.
+     *
+     * @param key to look up
+     * @return current stamp of the key
+     */
+    long stamp(@NotNull final ByteBuffer key) {
+        return stamps.get(stripe(key));
+    }
+
+    @Nullable
+    Value get(@NotNull final ByteBuffer key) {
+        if (capacity == 0) {
+            return null;
+        }
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        record(entry);
+        return entry.value;
+    }
+
+    /**
+     * Buffers the hit, the buffer slot of an earlier hit may be overwritten.
+     */
+    private void record(@NotNull final Entry entry) {
+        final int stripe = (int) Thread.currentThread().getId() & (READ_STRIPES - 1);
+        final int count = (int) readCounts.getAndIncrement(stripe) & (READ_BUFFER - 1);
+        reads.lazySet(stripe * READ_BUFFER + count, entry);
+        if (count == READ_BUFFER - 1 && lock.tryLock()) {
+            try {
+                drainReads();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @GuardedBy("lock")
+    private void drainReads() {
+        for (int i = 0; i < reads.length(); i++) {
+            final Entry entry = reads.getAndSet(i, null);
+            // Skips entries invalidated or evicted meanwhile
+            if (entry != null && entries.get(entry.key) == entry) {
+                sketch.increment(entry.hash);
+                if (window.get(entry.key) == null) {
+                    main.get(entry.key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Caches the value unless the key was written after the stamp was taken or the key is absent.
+     *
+     * @param key   of the value
+     * @param value latest value with inline data
+     * @param stamp taken by {@link #stamp(ByteBuffer)} before the lookup
+     */
+    void put(@NotNull final ByteBuffer key, @NotNull final Value value, final long stamp) {
+        if (capacity == 0 || value.state() == Value.State.ABSENT) {
+            return;
+        }
+        // Copy, so the cache does not pin buffers of callers and mapped tables
+        final ByteBuffer keyCopy = copy(key);
+        final Value valueCopy = value.state() == Value.State.PRESENT
+                ? Value.of(value.getTimeStamp(), copy(value.getData()))
+                : value;
+        final Entry entry = new Entry(keyCopy, valueCopy);
+        lock.lock();
+        try {
+            drainReads();
+            sketch.increment(entry.hash);
+            if (stamps.get(stripe(key)) != stamp || window.containsKey(keyCopy) || main.containsKey(keyCopy)) {
+                return;
+            }
+            entries.put(keyCopy, entry);
+            window.put(keyCopy, entry);
+            windowSize += entry.weight;
+            // Invalidation removes the entry after bumping the stamp, so a bump missed above is seen here
+            if (stamps.get(stripe(key)) != stamp) {
+                remove(keyCopy);
+                return;
+            }
+            while (windowSize > windowCapacity) {
+                final Entry candidate = removeEldest(window);
+                windowSize -= candidate.weight;
+                admit(candidate);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void admit(@NotNull final Entry candidate) {
+        if (candidate.weight > capacity - windowCapacity) {
+            entries.remove(candidate.key, candidate);
+            return;
+        }
+        final int frequency = sketch.frequency(candidate.hash);
+        while (mainSize + candidate.weight > capacity - windowCapacity) {
+            final Entry victim = main.values().iterator().next();
+            if (sketch.frequency(victim.hash) >= frequency) {
+                entries.remove(candidate.key, candidate);
+                return;
+            }
+            main.remove(victim.key);
+            mainSize -= victim.weight;
+            entries.remove(victim.key, victim);
+        }
+        main.put(candidate.key, candidate);
+        mainSize += candidate.weight;
+    }
+
+    private static Entry removeEldest(@NotNull final Map<ByteBuffer, Entry> map) {
+        final Iterator<Entry> entries = map.values().iterator();
+        final Entry eldest = entries.next();
+        entries.remove();
+        return eldest;
+    }
+
+    private static ByteBuffer copy(@NotNull final ByteBuffer buffer) {
+        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        return copy.flip();
+    }
+
+    /**
+     * Drops the cached value of the written key, locks only if the key is cached.
+     *
+     * @param key written or removed
+     */
+    void invalidate(@NotNull final ByteBuffer key) {
+        if (capacity == 0) {
+            return;
+        }
+        stamps.incrementAndGet(stripe(key));
+        if (entries.remove(key) == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void remove(@NotNull final ByteBuffer key) {
+        entries.remove(key);
+        final Entry windowed = window.remove(key);
+        if (windowed != null) {
+            windowSize -= windowed.weight;
+        }
+        final Entry entry = main.remove(key);
+        if (entry != null) {
+            mainSize -= entry.weight;
+        }
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long sizeInBytes() {
+        lock.lock();
+        try {
+            return windowSize + mainSize;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters with 4 rows, halved periodically
+     * so that the frequency of keys ages. Rows are indexed by double hashing
+     * of the 64-bit hash of the key.
+     */
+    static final class FrequencySketch {
+        private static final int ROWS = 4;
+        private static final int MAX = 15;
+
+        private final byte[][] counters;
+        private final int mask;
+        private final long resetAfter;
+        private long additions;
+
+        FrequencySketch(final long expectedEntries) {
+            final int width = Integer.highestOneBit((int) Math.max(16, Math.min(expectedEntries, 1 << 24)) * 2 - 1);
+            this.counters = new byte[ROWS][width];
+            this.mask = width - 1;
+            this.resetAfter = 10L * width;
+        }
+
+        private int index(final long hash, final int row) {
+            return ((int) hash + row * (int) (hash >>> 32)) & mask;
+        }
+
+        void increment(final long hash) {
+            boolean added = false;
+            for (int row = 0; row < ROWS; row++) {
+                final int i = index(hash, row);
+                if (counters[row][i] < MAX) {
+                    counters[row][i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= resetAfter) {
+                reset();
+            }
+        }
+
+        int frequency(final long hash) {
+            int frequency = MAX;
+            for (int row = 0; row < ROWS; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private void reset() {
+            for (final byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
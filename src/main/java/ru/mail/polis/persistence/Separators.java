@@ -0,0 +1,183 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Separator keys of blocks kept on heap with their 8-byte prefixes inline,
+ * so a binary search mostly compares longs of one array
+ * and reads the keys only when prefixes are equal.
+ * Prefixes of large indexes are also searched through levels of a static B-tree
+ * which nodes are the first prefixes of {@link #NODE} nodes of the level below,
+ * so every level costs one cache line and the count of matching prefixes in a node
+ * is taken without branches on the result.
+ */
+final class Separators {
+    static final int TREE_THRESHOLD = 1024;
+    private static final int NODE = 8;
+
+    private final ByteBuffer[] keys;
+    // Flipped to signed, so that plain compares keep the order
+    private final long[] prefixes;
+    private final long[][] levels;
+
+    Separators(@NotNull final ByteBuffer[] keys) {
+        this(keys, keys.length >= TREE_THRESHOLD);
+    }
+
+    Separators(@NotNull final ByteBuffer[] keys, final boolean tree) {
+        this.keys = keys;
+        this.prefixes = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            prefixes[i] = prefix(keys[i]) ^ Long.MIN_VALUE;
+        }
+        this.levels = tree ? levels(prefixes) : null;
+    }
+
+    /**
+     * Builds levels over the prefixes up to the root of at most NODE entries.
+     */
+    private static long[][] levels(@NotNull final long[] prefixes) {
+        final List<long[]> levels = new ArrayList<>();
+        long[] level = prefixes;
+        levels.add(level);
+        while (level.length > NODE) {
+            final long[] upper = new long[(level.length + NODE - 1) / NODE];
+            for (int i = 0; i < upper.length; i++) {
+                upper[i] = level[i * NODE];
+            }
+            levels.add(upper);
+            level = upper;
+        }
+        Collections.reverse(levels);
+        return levels.toArray(new long[0][]);
+    }
+
+    /**
+     * Finds the first separator which prefix is greater than the prefix.
+     */
+    private int upper(final long prefix) {
+        final long signed = prefix ^ Long.MIN_VALUE;
+        int position = 0;
+        for (final long[] level : levels) {
+            final int from = position * NODE;
+            final int to = Math.min(from + NODE, level.length);
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                count += level[i] <= signed ? 1 : 0;
+            }
+            if (count == 0) {
+                // Only the first node of the root has no prefix which is not greater
+                return 0;
+            }
+            position = from + count - 1;
+        }
+        return position + 1;
+    }
+
+    /**
+     * Unsigned number of the first 8 bytes of the key with flipped sign bits,
+     * shorter keys are padded with the least bytes. Keys with different prefixes
+     * compare as {@link ByteBuffer#compareTo(ByteBuffer)} does.
+     *
+     * @param key to convert
+     * @return prefix to compare with {@link Long#compareUnsigned(long, long)}
+     */
+    static long prefix(@NotNull final ByteBuffer key) {
+        return prefix(key, key.position(), key.remaining());
+    }
+
+    /**
+     * Prefix of the key in place, see {@link #prefix(ByteBuffer)}.
+     *
+     * @param data   buffer of the key
+     * @param offset of the key in data
+     * @param length of the key
+     * @return prefix to compare with {@link Long#compareUnsigned(long, long)}
+     */
+    static long prefix(@NotNull final ByteBuffer data, final int offset, final int length) {
+        long prefix = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            prefix <<= Byte.SIZE;
+            if (i < length) {
+                prefix |= (data.get(offset + i) ^ 0x80) & 0xFF;
+            }
+        }
+        return prefix;
+    }
+
+    int size() {
+        return keys.length;
+    }
+
+    @NotNull
+    ByteBuffer get(final int i) {
+        return keys[i];
+    }
+
+    /**
+     * Compares the key with the separator.
+     *
+     * @param key    to compare
+     * @param prefix of the key
+     * @param i      separator
+     * @return result of key.compareTo(separator)
+     */
+    int compare(@NotNull final ByteBuffer key, final long prefix, final int i) {
+        final int cmp = Long.compare(prefix ^ Long.MIN_VALUE, prefixes[i]);
+        return cmp == 0 ? key.compareTo(keys[i]) : cmp;
+    }
+
+    /**
+     * Finds the last separator which is not greater than the key.
+     *
+     * @param key to look up
+     * @return separator or 0 if all separators are greater
+     */
+    int floor(@NotNull final ByteBuffer key) {
+        final long prefix = prefix(key);
+        if (levels == null) {
+            return floor(key, prefix, 0, keys.length - 1);
+        }
+        final int upper = upper(prefix);
+        if (upper == 0) {
+            return 0;
+        }
+        if (prefixes[upper - 1] != (prefix ^ Long.MIN_VALUE)) {
+            return upper - 1;
+        }
+        // Keys decide between separators with the same prefix
+        final int lower = prefix == 0 ? 0 : upper(prefix - 1);
+        return floor(key, prefix, Math.max(0, lower - 1), upper - 1);
+    }
+
+    /**
+     * Binary searches the last separator in the range which is not greater than the key.
+     *
+     * @param key    to look up
+     * @param prefix of the key
+     * @param from   first separator to check
+     * @param to     last separator to check, inclusive
+     * @return separator or from if all separators are greater
+     */
+    int floor(@NotNull final ByteBuffer key, final long prefix, final int from, final int to) {
+        int left = from;
+        int right = to;
+        while (left <= right) {
+            final int mid = left + (right - left) / 2;
+            final int cmp = compare(key, prefix, mid);
+            if (cmp < 0) {
+                right = mid - 1;
+            } else if (cmp > 0) {
+                left = mid + 1;
+            } else {
+                return mid;
+            }
+        }
+        return Math.max(from, right);
+    }
+}
@@ -1,15 +1,12 @@
 package ru.mail.polis.persistence;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
 
 public interface Table {
     long sizeInBytes();
@@ -23,18 +20,27 @@ public interface Table {
 
     void remove(@NotNull ByteBuffer key) throws IOException;
 
+    /**
+     * Finds the cell with the key, memtables answer without building an iterator.
+     *
+     * @param key to find
+     * @return cell or null if the table has no such key
+     * @throws IOException If an I/O error occurs
+     */
+    @Nullable
+    default Cell get(@NotNull final ByteBuffer key) throws IOException {
+        final Iterator<Cell> cells = iterator(key);
+        if (!cells.hasNext()) {
+            return null;
+        }
+        final Cell cell = cells.next();
+        return cell.getKey().equals(key) ? cell : null;
+    }
+
     /**
      * Dump to the file in directory.
-     * List of Cells
-     * -Cell
-     * keySize - Integer
-     * key - ByteBuffer sizeOf(key) = keySize.
-     * Timestamp - time of last update Long
-     * if timestamp is positive then next
-     * valueSize - Integer
-     * value - ByteBuffer sizeOf(value) = valueSize.
-     * -offsets LongBuffer
-     * -count rows Long
+     * Cells are grouped into blocks with the sparse index of first keys,
+     * see {@link TableFormat} for the layout.
      *
      * @param cells iterator of data
      * @param to    directory
@@ -42,46 +48,41 @@ public interface Table {
      */
     static void write(@NotNull final Iterator<Cell> cells, @NotNull final File to)
             throws IOException {
-        try (FileChannel fileChannel = FileChannel.open(
-                to.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
-            final List<Long> offsets = new ArrayList<>();
-            long offset = 0;
-            while (cells.hasNext()) {
-                offsets.add(offset);
-
-                final Cell cell = cells.next();
-
-                final ByteBuffer key = cell.getKey();
-                final int keySize = cell.getKey().remaining();
-                fileChannel.write(Bytes.fromInt(keySize));
-                offset += Integer.BYTES;
-                final ByteBuffer keyDuplicate = key.duplicate();
-                fileChannel.write(keyDuplicate);
-                offset += keySize;
-
-                final Value value = cell.getValue();
+        write(cells, to, LSMConfig.DEFAULT);
+    }
 
-                if (value.isRemoved()) {
-                    fileChannel.write(Bytes.fromLong(-cell.getValue().getTimeStamp()));
-                } else {
-                    fileChannel.write(Bytes.fromLong(cell.getValue().getTimeStamp()));
-                }
+    /**
+     * Dump to the file in directory with given options.
+     *
+     * @param cells  iterator of data
+     * @param to     directory
+     * @param config options of the format
+     * @throws IOException If an I/O error occurs
+     */
+    static void write(@NotNull final Iterator<Cell> cells,
+                      @NotNull final File to,
+                      @NotNull final LSMConfig config) throws IOException {
+        write(cells, to, config, null);
+    }
 
-                offset += Long.BYTES;
-                if (!value.isRemoved()) {
-                    final ByteBuffer valueData = value.getData();
-                    final int valueSize = value.getData().remaining();
-                    fileChannel.write(Bytes.fromInt(valueSize));
-                    offset += Integer.BYTES;
-                    fileChannel.write(valueData);
-                    offset += valueSize;
-                }
-            }
-            for (final Long anOffset : offsets) {
-                fileChannel.write(Bytes.fromLong(anOffset));
+    /**
+     * Dump to the file in directory moving large values to the value log.
+     *
+     * @param cells  iterator of data
+     * @param to     directory
+     * @param config options of the format
+     * @param values appender of the value log or null to keep values inline
+     * @throws IOException If an I/O error occurs
+     */
+    static void write(@NotNull final Iterator<Cell> cells,
+                      @NotNull final File to,
+                      @NotNull final LSMConfig config,
+                      @Nullable final ValueLog.Appender values) throws IOException {
+        try (FileTableWriter writer = new FileTableWriter(to, config, values)) {
+            while (cells.hasNext()) {
+                writer.append(cells.next());
             }
-
-            fileChannel.write(Bytes.fromLong(offsets.size()));
+            writer.finish();
         }
     }
 }
@@ -0,0 +1,101 @@
+package ru.mail.polis.persistence;
+
+/**
+ * Layout of block-based SSTables.
+ * -data blocks of about BLOCK_SIZE bytes (see {@link Block})
+ * -sections referenced from the meta directory
+ * -meta directory: count - Integer, then for every section
+ * type - Integer, offset - Long, length - Long
+ * -footer: meta offset - Long, flags - Integer, MAGIC - Long
+ * Legacy tables end with the count of rows, which is never negative,
+ * so the negative magic tells the formats apart.
+ */
+final class TableFormat {
+    static final long MAGIC = 0xB10C_7AB1_E5F0_0001L;
+    static final int FOOTER_SIZE = Long.BYTES + Integer.BYTES + Long.BYTES;
+    static final int DIRECTORY_ENTRY = Integer.BYTES + Long.BYTES * 2;
+    static final int BLOCK_SIZE = 4 * 1024;
+
+    /**
+     * Keys in blocks share prefixes with previous ones, see {@link Block}.
+     */
+    static final int FLAG_PREFIX_KEYS = 1;
+
+    /**
+     * Blocks with prefix keys end with the hash index of restarts, see {@link Block}.
+     */
+    static final int FLAG_BLOCK_HASH = 2;
+
+    /**
+     * Blocks with prefix keys encode timestamps as varint deltas from the base
+     * of {@link #SECTION_TIMESTAMP_BASE} and sizes of values as varints, see {@link Block}.
+     */
+    static final int FLAG_COMPACT_CELLS = 4;
+
+    /**
+     * Every stored block, compressed or not, is followed by its CRC32C - Integer,
+     * offsets of blocks in the index include it.
+     */
+    static final int FLAG_BLOCK_CHECKSUM = 8;
+
+    /**
+     * Inline values of compact cells are compressed one by one with the preset dictionary
+     * of {@link #SECTION_VALUE_DICTIONARY}, see {@link ValueDictionary}.
+     */
+    static final int FLAG_VALUE_DICTIONARY = 16;
+
+    /**
+     * Id of {@link Compression} of blocks is kept in the second byte of flags.
+     */
+    static final int COMPRESSION_SHIFT = 8;
+    static final int COMPRESSION_MASK = 0xFF;
+
+    /**
+     * Sparse index: rows - Long, blocks - Integer, then for every block
+     * offset - Long, keySize - Integer, separator key of the block.
+     * Separator is the shortest prefix of the first key of the block
+     * which is greater than the last key of the previous block.
+     */
+    static final int SECTION_INDEX = 1;
+
+    /**
+     * Bloom filter of all keys, see {@link BloomFilter}.
+     */
+    static final int SECTION_BLOOM = 2;
+
+    /**
+     * Key range, counts and timestamps of cells, see {@link TableStats}.
+     */
+    static final int SECTION_STATS = 3;
+
+    /**
+     * Top level of the partitioned index written instead of {@link #SECTION_INDEX} for large tables:
+     * rows - Long, blocks - Integer, partitions - Integer, then for every partition
+     * offset in {@link #SECTION_INDEX_PARTITIONS} - Long, length - Integer, first block - Integer,
+     * keySize - Integer, separator key of the first block.
+     */
+    static final int SECTION_TOP_INDEX = 4;
+
+    /**
+     * Partitions of the index of about BLOCK_SIZE bytes, see {@link IndexPartition}.
+     */
+    static final int SECTION_INDEX_PARTITIONS = 5;
+
+    /**
+     * Optional model predicting blocks of keys for the flat index, see {@link LearnedIndex}.
+     */
+    static final int SECTION_LEARNED_INDEX = 6;
+
+    /**
+     * Timestamp of the first cell - Long, the base of timestamps of {@link #FLAG_COMPACT_CELLS}.
+     */
+    static final int SECTION_TIMESTAMP_BASE = 7;
+
+    /**
+     * Preset dictionary of Deflate for values of {@link #FLAG_VALUE_DICTIONARY}.
+     */
+    static final int SECTION_VALUE_DICTIONARY = 8;
+
+    private TableFormat() {
+    }
+}
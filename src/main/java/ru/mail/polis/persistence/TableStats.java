@@ -0,0 +1,129 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Summary of SSTable cells, lets the DAO skip tables out of the requested range.
+ * Layout: rows - Long, tombstones - Long, minTimeStamp - Long, maxTimeStamp - Long,
+ * minKeySize - Integer, minKey, maxKeySize - Integer, maxKey.
+ */
+final class TableStats {
+    private final long rows;
+    private final long tombstones;
+    private final long minTimeStamp;
+    private final long maxTimeStamp;
+    private final ByteBuffer minKey;
+    private final ByteBuffer maxKey;
+
+    private TableStats(final long rows,
+                       final long tombstones,
+                       final long minTimeStamp,
+                       final long maxTimeStamp,
+                       @NotNull final ByteBuffer minKey,
+                       @NotNull final ByteBuffer maxKey) {
+        this.rows = rows;
+        this.tombstones = tombstones;
+        this.minTimeStamp = minTimeStamp;
+        this.maxTimeStamp = maxTimeStamp;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+    }
+
+    @NotNull
+    static TableStats read(@NotNull final ByteBuffer section) {
+        final ByteBuffer buffer = section.duplicate();
+        final long rows = buffer.getLong();
+        final long tombstones = buffer.getLong();
+        final long minTimeStamp = buffer.getLong();
+        final long maxTimeStamp = buffer.getLong();
+        final ByteBuffer minKey = key(buffer);
+        final ByteBuffer maxKey = key(buffer);
+        return new TableStats(rows, tombstones, minTimeStamp, maxTimeStamp, minKey, maxKey);
+    }
+
+    private static ByteBuffer key(@NotNull final ByteBuffer buffer) {
+        final int size = buffer.getInt();
+        final ByteBuffer key = buffer.slice().limit(size);
+        buffer.position(buffer.position() + size);
+        return key;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getTombstones() {
+        return tombstones;
+    }
+
+    long getMinTimeStamp() {
+        return minTimeStamp;
+    }
+
+    long getMaxTimeStamp() {
+        return maxTimeStamp;
+    }
+
+    @NotNull
+    ByteBuffer getMinKey() {
+        return minKey.duplicate();
+    }
+
+    @NotNull
+    ByteBuffer getMaxKey() {
+        return maxKey.duplicate();
+    }
+
+    /**
+     * Checks whether keys of the table may get into the range.
+     *
+     * @param from lower bound, inclusive
+     * @param to   upper bound, inclusive, or null if unbounded
+     * @return false if the table has no keys in the range
+     */
+    boolean overlaps(@NotNull final ByteBuffer from, @Nullable final ByteBuffer to) {
+        return rows > 0 && maxKey.compareTo(from) >= 0 && (to == null || minKey.compareTo(to) <= 0);
+    }
+
+    /**
+     * Collects stats of cells appended in ascending order of keys.
+     */
+    static final class Collector {
+        private long rows;
+        private long tombstones;
+        private long minTimeStamp = Long.MAX_VALUE;
+        private long maxTimeStamp = Long.MIN_VALUE;
+        private ByteBuffer minKey = ByteBuffer.allocate(0);
+        private ByteBuffer maxKey = ByteBuffer.allocate(0);
+
+        void add(@NotNull final Cell cell) {
+            final Value value = cell.getValue();
+            if (rows == 0) {
+                minKey = cell.getKey();
+            }
+            maxKey = cell.getKey();
+            if (value.isRemoved()) {
+                tombstones++;
+            }
+            minTimeStamp = Math.min(minTimeStamp, value.getTimeStamp());
+            maxTimeStamp = Math.max(maxTimeStamp, value.getTimeStamp());
+            rows++;
+        }
+
+        int sizeInBytes() {
+            return Long.BYTES * 4 + Integer.BYTES * 2 + minKey.remaining() + maxKey.remaining();
+        }
+
+        void writeTo(@NotNull final ByteBuffer to) {
+            to.putLong(rows);
+            to.putLong(tombstones);
+            to.putLong(rows == 0 ? 0 : minTimeStamp);
+            to.putLong(rows == 0 ? 0 : maxTimeStamp);
+            to.putInt(minKey.remaining()).put(minKey.duplicate());
+            to.putInt(maxKey.remaining()).put(maxKey.duplicate());
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package ru.mail.polis.persistence;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.nio.ByteBuffer;
 import java.util.Collection;
@@ -12,14 +13,20 @@ public final class Value implements Comparable<Value> {
     private final long ts;
     private final ByteBuffer data;
     private final State state;
+    private final ValuePointer pointer;
     private static final AtomicInteger nano = new AtomicInteger();
     private static final int FACTOR = 1_000_000;
 
     public Value(State state, final long ts, final ByteBuffer data) {
+        this(state, ts, data, null);
+    }
+
+    private Value(final State state, final long ts, final ByteBuffer data, final ValuePointer pointer) {
         assert ts >= 0;
         this.state = state;
         this.ts = ts;
         this.data = data;
+        this.pointer = pointer;
     }
 
     /**
@@ -36,6 +43,17 @@ public final class Value implements Comparable<Value> {
         return new Value(State.PRESENT, time, data.duplicate());
     }
 
+    /**
+     * Create Value which data is kept in the value log.
+     *
+     * @param time    timestamp of the value
+     * @param pointer location of data in the log
+     * @return value to be resolved by {@link ValueLog}
+     */
+    public static Value of(final long time, @NotNull final ValuePointer pointer) {
+        return new Value(State.PRESENT, time, null, pointer);
+    }
+
     @NotNull
     public static Value absent() {
         return ABSENT;
@@ -50,10 +68,23 @@ public final class Value implements Comparable<Value> {
     }
 
     public boolean isRemoved() {
-        return data == null;
+        return data == null && pointer == null;
+    }
+
+    /**
+     * Location of data in the value log.
+     *
+     * @return pointer or null if data is inline
+     */
+    @Nullable
+    public ValuePointer getPointer() {
+        return pointer;
     }
 
     public ByteBuffer getData() {
+        if (pointer != null) {
+            throw new IllegalStateException("Data is in the value log: " + pointer);
+        }
         if (data == null) {
             throw new IllegalArgumentException("");
         }
@@ -69,7 +100,7 @@ public final class Value implements Comparable<Value> {
         return ts;
     }
 
-    private static long getMoment() {
+    static long getMoment() {
         final long time = System.currentTimeMillis() * FACTOR + nano.incrementAndGet();
         if (nano.get() > FACTOR) {
             nano.set(0);
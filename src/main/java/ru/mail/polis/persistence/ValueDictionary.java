@@ -0,0 +1,188 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Preset dictionary of Deflate shared by values of one table, see {@link TableFormat#SECTION_VALUE_DICTIONARY}.
+ * Small values compress poorly on their own, the dictionary gives them the common parts
+ * of sampled values to refer to. Values are deflated one by one, so a point read
+ * inflates only its value and the block cache keeps values compressed.
+ * Inline values of such tables start with rawSize - VarInt followed by raw Deflate data,
+ * rawSize is 0 for values stored as they are.
+ */
+final class ValueDictionary {
+    /**
+     * Deflate refers no further back than this.
+     */
+    static final int MAX_SIZE = 32 * 1024;
+    private static final int SHINGLE = Long.BYTES;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final ByteBuffer dictionary;
+
+    ValueDictionary(@NotNull final ByteBuffer dictionary) {
+        this.dictionary = dictionary.asReadOnlyBuffer();
+    }
+
+    /**
+     * Chooses sampled values to make the dictionary of: values sharing more 8-byte shingles
+     * with other values go first, the best ones are placed at the end, nearest to the data.
+     *
+     * @param samples values of the table
+     * @param size    maximal size of the dictionary
+     * @return dictionary, empty if there are no samples
+     */
+    @NotNull
+    static ValueDictionary train(@NotNull final List<ByteBuffer> samples, final int size) {
+        final Set<ByteBuffer> distinct = new LinkedHashSet<>(samples);
+        final Map<Long, Integer> counts = new HashMap<>();
+        for (final ByteBuffer sample : distinct) {
+            for (final long shingle : shingles(sample)) {
+                counts.merge(shingle, 1, Integer::sum);
+            }
+        }
+
+        final List<ByteBuffer> ranked = new ArrayList<>(distinct);
+        final Map<ByteBuffer, Double> scores = new HashMap<>();
+        for (final ByteBuffer sample : ranked) {
+            long shared = 0;
+            for (final long shingle : shingles(sample)) {
+                shared += counts.get(shingle) - 1;
+            }
+            scores.put(sample, (double) shared / Math.max(1, sample.remaining()));
+        }
+        ranked.sort(Comparator.comparing(scores::get).reversed());
+
+        final int capacity = Math.min(size, MAX_SIZE);
+        final List<ByteBuffer> chosen = new ArrayList<>();
+        int total = 0;
+        for (final ByteBuffer sample : ranked) {
+            if (total >= capacity || scores.get(sample) == 0.0) {
+                break;
+            }
+            final int length = Math.min(sample.remaining(), capacity - total);
+            chosen.add(sample.duplicate().limit(sample.position() + length));
+            total += length;
+        }
+        final ByteBuffer dictionary = ByteBuffer.allocate(total);
+        for (int i = chosen.size() - 1; i >= 0; i--) {
+            dictionary.put(chosen.get(i).duplicate());
+        }
+        return new ValueDictionary(dictionary.flip());
+    }
+
+    private static Set<Long> shingles(@NotNull final ByteBuffer sample) {
+        final Set<Long> shingles = new HashSet<>();
+        for (int i = sample.position(); i + SHINGLE <= sample.limit(); i++) {
+            shingles.add(sample.getLong(i));
+        }
+        return shingles;
+    }
+
+    int sizeInBytes() {
+        return dictionary.remaining();
+    }
+
+    void writeTo(@NotNull final ByteBuffer to) {
+        to.put(dictionary.duplicate());
+    }
+
+    /**
+     * Restores the value written by {@link Compressor}.
+     *
+     * @param stored inline value of the table
+     * @return raw value
+     */
+    @NotNull
+    ByteBuffer decompress(@NotNull final ByteBuffer stored) {
+        final ByteBuffer cursor = stored.duplicate();
+        final int rawSize = Bytes.getVarInt(cursor);
+        if (rawSize == 0) {
+            return cursor.slice();
+        }
+
+        final ByteBuffer raw = ByteBuffer.allocate(rawSize);
+        final Inflater inflater = INFLATER.get();
+        inflater.reset();
+        if (dictionary.hasRemaining()) {
+            inflater.setDictionary(dictionary.duplicate());
+        }
+        inflater.setInput(cursor);
+        try {
+            while (raw.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(raw) == 0 && inflater.needsInput()) {
+                    throw new UncheckedIOException(new IOException("Truncated value"));
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Broken value", e));
+        }
+        return raw.flip();
+    }
+
+    /**
+     * Compresses values of one table, not thread safe.
+     */
+    static final class Compressor {
+        private final ByteBuffer dictionary;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private ByteBuffer output = ByteBuffer.allocate(TableFormat.BLOCK_SIZE);
+
+        Compressor(@NotNull final ValueDictionary dictionary) {
+            this.dictionary = dictionary.dictionary;
+        }
+
+        /**
+         * Compresses the value and adds the header.
+         *
+         * @param raw value
+         * @return value to store inline, valid until the next call
+         */
+        @NotNull
+        ByteBuffer compress(@NotNull final ByteBuffer raw) {
+            final int rawSize = raw.remaining();
+            final int header = Bytes.varIntSize(rawSize);
+            output.clear();
+            output = Bytes.ensureCapacity(output, header + rawSize);
+            Bytes.putVarInt(output, rawSize);
+
+            deflater.reset();
+            if (dictionary.hasRemaining()) {
+                deflater.setDictionary(dictionary.duplicate());
+            }
+            deflater.setInput(raw.duplicate());
+            deflater.finish();
+            // Pays off only if smaller than the raw value with its header
+            while (!deflater.finished() && output.position() < rawSize) {
+                final ByteBuffer rest = output.slice().limit(rawSize - output.position());
+                output.position(output.position() + deflater.deflate(rest));
+            }
+
+            if (rawSize == 0 || !deflater.finished()) {
+                output.clear();
+                Bytes.putVarInt(output, 0);
+                output.put(raw.duplicate());
+            }
+            return output.flip();
+        }
+
+        void end() {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append only segments of large values separated from SSTables,
+ * so that compaction rewrites pointers instead of the values.
+ * Every flush or compaction writes its own segment. Compaction counts
+ * live bytes of segments, and the next one moves values out of segments
+ * with a low live ratio, so the segments can be removed.
+ * Tables left by compaction may still be read by iterators, so segments are removed
+ * once those tables are unreachable.
+ */
+@ThreadSafe
+final class ValueLog {
+    static final String PREFIX_FILE = "VALUES";
+    static final String SUFFIX_LOG = ".vlog";
+    private static final Pattern NAME = Pattern.compile(PREFIX_FILE + "(\\d+)" + SUFFIX_LOG);
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final Logger log = LoggerFactory.getLogger(this.getClass());
+
+    private final File dir;
+    private final AtomicInteger ids = new AtomicInteger();
+    private final Map<Integer, Segment> segments = new ConcurrentHashMap<>();
+
+    private static final class Segment {
+        private final File file;
+        private final MappedFile mapped;
+        private volatile long live;
+        private volatile boolean committed;
+        private volatile boolean retired;
+
+        Segment(@NotNull final File file, final boolean committed) throws IOException {
+            this.file = file;
+            this.mapped = new MappedFile(file);
+            this.live = mapped.size();
+            this.committed = committed;
+        }
+
+        double liveRatio() {
+            return (double) live / mapped.size();
+        }
+    }
+
+    /**
+     * Opens segments found in the directory.
+     *
+     * @param dir directory of the DAO
+     * @throws IOException if was input or output errors
+     */
+    ValueLog(@NotNull final File dir) throws IOException {
+        this.dir = dir;
+        try (Stream<Path> walk = Files.walk(dir.toPath(), 1)) {
+            final Iterator<Path> paths = walk.iterator();
+            while (paths.hasNext()) {
+                final Path path = paths.next();
+                final Matcher matcher = NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    final int id = Integer.parseInt(matcher.group(1));
+                    segments.put(id, new Segment(path.toFile(), true));
+                    ids.accumulateAndGet(id, Math::max);
+                }
+            }
+        }
+    }
+
+    /**
+     * Provides data of the value moved to the log.
+     *
+     * @param pointer location of the value
+     * @return read only data
+     */
+    @NotNull
+    ByteBuffer read(@NotNull final ValuePointer pointer) {
+        final Segment segment = segments.get(pointer.getSegment());
+        if (segment == null) {
+            throw new IllegalStateException("No value log segment for " + pointer);
+        }
+        return segment.mapped.slice(pointer.getOffset(), pointer.getLength()).asReadOnlyBuffer();
+    }
+
+    /**
+     * Resolves the value if its data is in the log.
+     *
+     * @param value stored in a table
+     * @return value with inline data
+     */
+    @NotNull
+    Value resolve(@NotNull final Value value) {
+        final ValuePointer pointer = value.getPointer();
+        return pointer == null ? value : Value.of(value.getTimeStamp(), read(pointer));
+    }
+
+    /**
+     * Total size of segments, but the ones waiting for removal.
+     *
+     * @return bytes on disk
+     */
+    long sizeInBytes() {
+        long size = 0;
+        for (final Segment segment : segments.values()) {
+            if (!segment.retired) {
+                size += segment.mapped.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Starts the segment for values of a flushed table.
+     *
+     * @param threshold values of this size and larger go to the log
+     * @return appender of the segment
+     */
+    @NotNull
+    Appender appender(final int threshold) {
+        return new Appender(threshold, Map.of());
+    }
+
+    /**
+     * Starts the segment for the table written by compaction of all tables.
+     * Values from committed segments with the live ratio below gcRatio are moved to it,
+     * live bytes of the rest are counted anew.
+     *
+     * @param threshold values of this size and larger go to the log
+     * @param gcRatio   segments with less live bytes are collected
+     * @return appender of the segment
+     */
+    @NotNull
+    Appender compaction(final int threshold, final double gcRatio) {
+        final Map<Integer, Segment> snapshot = new HashMap<>();
+        for (final Map.Entry<Integer, Segment> entry : segments.entrySet()) {
+            if (entry.getValue().committed && !entry.getValue().retired) {
+                snapshot.put(entry.getKey(), entry.getValue());
+            }
+        }
+        final Appender appender = new Appender(threshold, snapshot);
+        for (final Map.Entry<Integer, Segment> entry : snapshot.entrySet()) {
+            if (entry.getValue().liveRatio() < gcRatio) {
+                appender.victims.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return appender;
+    }
+
+    /**
+     * Removes the segments once all the tables are unreachable.
+     */
+    private void retire(@NotNull final List<Integer> ids, @NotNull final Collection<?> tables) {
+        for (final Integer id : ids) {
+            segments.get(id).retired = true;
+        }
+        final Runnable remove = new Remover(ids, Math.max(1, tables.size()));
+        if (tables.isEmpty()) {
+            remove.run();
+        }
+        for (final Object table : tables) {
+            CLEANER.register(table, remove);
+        }
+    }
+
+    /**
+     * Removes segments when run for the last of the tables, must not refer to them.
+     */
+    private final class Remover implements Runnable {
+        private final List<Integer> ids;
+        private final AtomicInteger tables;
+
+        Remover(@NotNull final List<Integer> ids, final int tables) {
+            this.ids = ids;
+            this.tables = new AtomicInteger(tables);
+        }
+
+        @Override
+        public void run() {
+            if (tables.decrementAndGet() > 0) {
+                return;
+            }
+            for (final Integer id : ids) {
+                final Segment segment = segments.remove(id);
+                try {
+                    Files.delete(segment.file.toPath());
+                    log.debug("Removed value log segment {}", id);
+                } catch (IOException e) {
+                    log.error("Can't remove value log segment {}", id, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes values of one table to the new segment, not thread safe.
+     * Usage: {@link #place(Value)} every value, {@link #seal()} before the table
+     * becomes visible to readers, {@link #commit()} after that and close.
+     * Closing without seal drops the segment, a sealed one may be referred by the table
+     * already in place, so it is kept.
+     */
+    final class Appender implements Closeable {
+        private final int id = ids.incrementAndGet();
+        private final File file = new File(dir, PREFIX_FILE + id + SUFFIX_LOG);
+        private final int threshold;
+        private final Map<Integer, Segment> counted;
+        private final Map<Integer, Segment> victims = new HashMap<>();
+        private final Map<Integer, Long> live = new HashMap<>();
+        private FileChannel channel;
+        private Segment segment;
+        private long offset;
+        private boolean sealed;
+        private boolean committed;
+
+        private Appender(final int threshold, @NotNull final Map<Integer, Segment> counted) {
+            this.threshold = threshold;
+            this.counted = counted;
+        }
+
+        /**
+         * Moves data of the value to the log if it is large or its segment is collected.
+         *
+         * @param value to be written to the table
+         * @return value to be written instead
+         * @throws IOException If an I/O error occurs
+         */
+        @NotNull
+        Value place(@NotNull final Value value) throws IOException {
+            if (value.isRemoved()) {
+                return value;
+            }
+            final ValuePointer pointer = value.getPointer();
+            if (pointer == null) {
+                final ByteBuffer data = value.getData();
+                return data.remaining() < threshold ? value : Value.of(value.getTimeStamp(), append(data));
+            }
+            if (victims.containsKey(pointer.getSegment())) {
+                return Value.of(value.getTimeStamp(), append(read(pointer)));
+            }
+            if (counted.containsKey(pointer.getSegment())) {
+                live.merge(pointer.getSegment(), (long) pointer.getLength(), Long::sum);
+            }
+            return value;
+        }
+
+        private ValuePointer append(@NotNull final ByteBuffer data) throws IOException {
+            if (channel == null) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            final ValuePointer pointer = new ValuePointer(id, offset, data.remaining());
+            final ByteBuffer buffer = data.duplicate();
+            while (buffer.hasRemaining()) {
+                offset += channel.write(buffer);
+            }
+            return pointer;
+        }
+
+        /**
+         * Completes the segment and makes it readable.
+         *
+         * @throws IOException If an I/O error occurs
+         */
+        void seal() throws IOException {
+            sealed = true;
+            if (channel == null) {
+                return;
+            }
+            channel.force(false);
+            channel.close();
+            channel = null;
+            segment = new Segment(file, false);
+            segments.put(id, segment);
+        }
+
+        /**
+         * Lets the sealed segment be collected once the table is visible.
+         */
+        void commit() {
+            commit(List.of());
+        }
+
+        /**
+         * Lets the sealed segment be collected once the table is visible.
+         * After compaction removes segments which have no live bytes left
+         * once the compacted tables are unreachable.
+         *
+         * @param sources tables replaced by the one written
+         */
+        void commit(@NotNull final Collection<?> sources) {
+            assert channel == null;
+            committed = true;
+            if (segment != null) {
+                segment.committed = true;
+            }
+            final List<Integer> dead = new ArrayList<>();
+            for (final Map.Entry<Integer, Segment> entry : counted.entrySet()) {
+                final long bytes = live.getOrDefault(entry.getKey(), 0L);
+                if (bytes == 0) {
+                    dead.add(entry.getKey());
+                } else {
+                    entry.getValue().live = bytes;
+                }
+            }
+            if (!dead.isEmpty()) {
+                retire(dead, sources);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed || sealed) {
+                return;
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            segments.remove(id);
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+}
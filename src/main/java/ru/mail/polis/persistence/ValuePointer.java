@@ -0,0 +1,49 @@
+package ru.mail.polis.persistence;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Location of the value moved to the {@link ValueLog}.
+ * Layout: segment - Integer, offset - Long, length - Integer.
+ */
+public final class ValuePointer {
+    static final int BYTES = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private final int segment;
+    private final long offset;
+    private final int length;
+
+    ValuePointer(final int segment, final long offset, final int length) {
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @NotNull
+    static ValuePointer read(@NotNull final ByteBuffer from) {
+        return new ValuePointer(from.getInt(), from.getLong(), from.getInt());
+    }
+
+    void writeTo(@NotNull final ByteBuffer to) {
+        to.putInt(segment).putLong(offset).putInt(length);
+    }
+
+    int getSegment() {
+        return segment;
+    }
+
+    long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return "segment=" + segment + ", offset=" + offset + ", length=" + length;
+    }
+}
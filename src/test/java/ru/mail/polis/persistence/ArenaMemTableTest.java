@@ -0,0 +1,139 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ArenaMemTable} and its use by {@link LSMDao}.
+ */
+class ArenaMemTableTest {
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%010d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i, final int size) {
+        return ByteBuffer.allocate(size).putInt(0, i);
+    }
+
+    private static List<Cell> cells(final Table table, final ByteBuffer from) throws IOException {
+        final List<Cell> cells = new ArrayList<>();
+        table.iterator(from).forEachRemaining(cells::add);
+        return cells;
+    }
+
+    @Test
+    void sorted() throws IOException {
+        final Table table = new ArenaMemTable();
+        for (int i = 999; i >= 0; i--) {
+            table.upsert(key(i * 2), value(i, 16));
+        }
+        final List<Cell> cells = cells(table, key(11));
+        assertEquals(994, cells.size());
+        for (int i = 0; i < cells.size(); i++) {
+            assertEquals(key(12 + i * 2), cells.get(i).getKey());
+            assertEquals(value(6 + i, 16), cells.get(i).getValue().getData());
+        }
+        assertEquals(1000, cells(table, ByteBuffer.allocate(0)).size());
+    }
+
+    @Test
+    void overwriteAndRemove() throws IOException {
+        final Table table = new ArenaMemTable();
+        table.upsert(key(1), value(1, 8));
+        table.upsert(key(1), value(2, 8));
+        table.upsert(key(2), value(3, 8));
+        table.remove(key(2));
+        table.remove(key(3));
+
+        final Iterator<Cell> cells = table.iterator(ByteBuffer.allocate(0));
+        assertEquals(value(2, 8), cells.next().getValue().getData());
+        assertTrue(cells.next().getValue().isRemoved());
+        final Cell removed = cells.next();
+        assertEquals(key(3), removed.getKey());
+        assertTrue(removed.getValue().isRemoved());
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void largeValues() throws IOException {
+        final Table table = new ArenaMemTable(new Arena(1024));
+        for (int i = 0; i < 10; i++) {
+            table.upsert(key(i), value(i, 3000));
+        }
+        final List<Cell> cells = cells(table, ByteBuffer.allocate(0));
+        assertEquals(10, cells.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(value(i, 3000), cells.get(i).getValue().getData());
+        }
+        assertTrue(table.sizeInBytes() >= 10 * 3000);
+    }
+
+    @Test
+    void concurrentUpserts() throws Exception {
+        final Table table = new ArenaMemTable(new Arena(64 * 1024));
+        final int threads = 4;
+        final int keys = 10_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = thread; i < keys; i += threads) {
+                        table.upsert(key(i), value(i, 32));
+                        table.upsert(key(i % 100), value(i, 32));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+        }
+
+        final List<Cell> cells = cells(table, ByteBuffer.allocate(0));
+        assertEquals(keys, cells.size());
+        for (int i = 0; i < keys; i++) {
+            assertEquals(key(i), cells.get(i).getKey());
+        }
+        for (int i = 100; i < keys; i++) {
+            assertEquals(value(i, 32), cells.get(i).getValue().getData());
+        }
+    }
+
+    @Test
+    void offHeapDao(@TempDir final File data) throws IOException {
+        final LSMConfig config = LSMConfig.builder().memTableType(MemTableType.OFF_HEAP).build();
+        try (LSMDao dao = new LSMDao(data, 64 * 1024, 2, config)) {
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(key(i), value(i, 256));
+            }
+            dao.remove(key(500));
+            assertEquals(value(1, 256), dao.getValue(key(1)).getData());
+            assertEquals(Value.State.REMOVED, dao.getValue(key(500)).state());
+        }
+        try (LSMDao dao = new LSMDao(data, 64 * 1024, 2, config)) {
+            assertEquals(value(999, 256), dao.getValue(key(999)).getData());
+            assertEquals(Value.State.REMOVED, dao.getValue(key(500)).state());
+        }
+    }
+}
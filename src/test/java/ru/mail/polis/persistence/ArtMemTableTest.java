@@ -0,0 +1,189 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ArtMemTable} and its use by {@link LSMDao}.
+ */
+class ArtMemTableTest {
+    /**
+     * Keys of up to 6 bytes from a small alphabet, so they share prefixes,
+     * are prefixes of each other and have negative bytes.
+     */
+    private static ByteBuffer key(final Random random) {
+        final byte[] alphabet = {-128, -1, 0, 1, 'a', 127};
+        final byte[] key = new byte[random.nextInt(7)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = alphabet[random.nextInt(alphabet.length)];
+        }
+        return ByteBuffer.wrap(key);
+    }
+
+    private static ByteBuffer value(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+
+    private static void assertSame(final NavigableMap<ByteBuffer, ByteBuffer> expected,
+                                   final Iterator<Cell> cells) {
+        for (final Map.Entry<ByteBuffer, ByteBuffer> entry : expected.entrySet()) {
+            assertTrue(cells.hasNext());
+            final Cell cell = cells.next();
+            assertEquals(entry.getKey(), cell.getKey());
+            if (entry.getValue().hasRemaining()) {
+                assertEquals(entry.getValue(), cell.getValue().getData());
+            } else {
+                assertTrue(cell.getValue().isRemoved());
+            }
+        }
+        assertFalse(cells.hasNext());
+    }
+
+    @Test
+    void sameAsSortedMap() throws IOException {
+        final Random random = new Random(42);
+        final Table table = new ArtMemTable();
+        // Empty values stand for tombstones
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            final ByteBuffer key = key(random);
+            if (random.nextInt(5) == 0) {
+                table.remove(key);
+                expected.put(key, ByteBuffer.allocate(0));
+            } else {
+                table.upsert(key, value(i));
+                expected.put(key, value(i));
+            }
+        }
+        assertSame(expected, table.iterator(ByteBuffer.allocate(0)));
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer from = key(random);
+            assertSame(expected.tailMap(from, true), table.iterator(from));
+        }
+    }
+
+    @Test
+    void wideNodes() throws IOException {
+        final Table table = new ArtMemTable();
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < 256; i++) {
+            final ByteBuffer key = ByteBuffer.wrap(new byte[]{1, 2, (byte) (i * 7)});
+            table.upsert(key, value(i));
+            expected.put(key, value(i));
+            assertSame(expected, table.iterator(ByteBuffer.allocate(0)));
+        }
+        assertSame(expected.tailMap(ByteBuffer.wrap(new byte[]{1, 2, 0}), true),
+                table.iterator(ByteBuffer.wrap(new byte[]{1, 2, 0})));
+        assertEquals(256L * (3 + Integer.BYTES), table.sizeInBytes());
+    }
+
+    @Test
+    void scansDuringWrites() throws IOException {
+        final Table table = new ArtMemTable();
+        for (int i = 0; i < 100; i++) {
+            table.upsert(value(i * 2), value(i));
+        }
+        final Iterator<Cell> scan = table.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < 100; i++) {
+            table.upsert(value(i * 2), value(-i));
+            table.upsert(value(i * 2 + 1), value(i));
+        }
+        // Writes done meanwhile may be seen or not, keys stay ordered
+        ByteBuffer previous = null;
+        int old = 0;
+        while (scan.hasNext()) {
+            final Cell cell = scan.next();
+            if (previous != null) {
+                assertTrue(previous.compareTo(cell.getKey()) < 0);
+            }
+            previous = cell.getKey();
+            if (cell.getKey().getInt(0) % 2 == 0) {
+                final int i = cell.getKey().getInt(0) / 2;
+                final int value = cell.getValue().getData().getInt(0);
+                assertTrue(value == i || value == -i);
+                old++;
+            }
+        }
+        assertEquals(100, old);
+    }
+
+    @Test
+    void concurrentWrites() throws Exception {
+        final Table table = new ArtMemTable();
+        final int threads = 4;
+        final int keys = 20_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            final List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                writers.add(executor.submit(() -> {
+                    // Every thread writes its own keys, interleaved with keys of others
+                    for (int i = thread; i < keys; i += threads) {
+                        table.upsert(value(i * 31), value(i));
+                    }
+                    return null;
+                }));
+            }
+            final Future<?> reader = executor.submit(() -> {
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    ByteBuffer previous = null;
+                    for (final Iterator<Cell> cells = table.iterator(ByteBuffer.allocate(0)); cells.hasNext(); ) {
+                        final ByteBuffer key = cells.next().getKey();
+                        assertTrue(previous == null || previous.compareTo(key) < 0);
+                        previous = key;
+                    }
+                }
+                return null;
+            });
+            for (final Future<?> writer : writers) {
+                writer.get();
+            }
+            reader.get();
+        } finally {
+            executor.shutdown();
+        }
+        final NavigableMap<ByteBuffer, ByteBuffer> expected = new TreeMap<>();
+        for (int i = 0; i < keys; i++) {
+            expected.put(value(i * 31), value(i));
+            assertEquals(value(i), table.get(value(i * 31)).getValue().getData());
+        }
+        assertSame(expected, table.iterator(ByteBuffer.allocate(0)));
+        assertEquals((long) keys * 2 * Integer.BYTES, table.sizeInBytes());
+    }
+
+    @Test
+    void artDao(@TempDir final File data) throws IOException {
+        final LSMConfig config = LSMConfig.builder().memTableType(MemTableType.ART).build();
+        try (LSMDao dao = new LSMDao(data, 16 * 1024, 2, config)) {
+            for (int i = 0; i < 1000; i++) {
+                dao.upsert(value(i), value(-i));
+            }
+            dao.remove(value(500));
+            assertEquals(value(-1), dao.getValue(value(1)).getData());
+            assertEquals(Value.State.REMOVED, dao.getValue(value(500)).state());
+        }
+        try (LSMDao dao = new LSMDao(data, 16 * 1024, 2, config)) {
+            assertEquals(value(-999), dao.getValue(value(999)).getData());
+            assertEquals(Value.State.REMOVED, dao.getValue(value(500)).state());
+        }
+    }
+}
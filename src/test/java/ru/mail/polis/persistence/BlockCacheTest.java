@@ -0,0 +1,130 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link BlockCache}.
+ */
+class BlockCacheTest {
+    private static final int SLOTS = 4;
+
+    private static ByteBuffer block(final long key) {
+        return ByteBuffer.allocate(Long.BYTES * 16).putLong(0, key);
+    }
+
+    private static long get(final BlockCache cache, final long key) throws IOException {
+        return cache.get(key, true, () -> block(key)).getLong(0);
+    }
+
+    private static boolean cached(final BlockCache cache, final long key) throws IOException {
+        final long hits = cache.getHits();
+        assertEquals(key, get(cache, key));
+        return cache.getHits() > hits;
+    }
+
+    @Test
+    void hitsAndMisses() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS);
+        for (long key = 0; key < SLOTS; key++) {
+            assertEquals(key, get(cache, key));
+        }
+        for (long key = 0; key < SLOTS; key++) {
+            assertEquals(key, get(cache, key));
+        }
+        assertEquals(SLOTS, cache.getMisses());
+        assertEquals(SLOTS, cache.getHits());
+    }
+
+    @Test
+    void lru() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS, EvictionPolicy.LRU);
+        for (long key = 0; key < SLOTS; key++) {
+            get(cache, key);
+        }
+        // 0 becomes the most recent, so 1 is evicted
+        get(cache, 0);
+        get(cache, SLOTS);
+        assertFalse(cached(cache, 1));
+        assertTrue(cached(cache, SLOTS));
+    }
+
+    @Test
+    void clock() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS, EvictionPolicy.CLOCK);
+        for (long key = 0; key < SLOTS; key++) {
+            get(cache, key);
+        }
+        // The hand clears all reference bits and takes the first slot
+        get(cache, SLOTS);
+        assertTrue(cached(cache, SLOTS));
+        assertTrue(cached(cache, 1));
+        // 1 got the second chance, 2 did not
+        get(cache, SLOTS + 1);
+        assertTrue(cached(cache, 1));
+        assertFalse(cached(cache, 2));
+    }
+
+    @Test
+    void evictedBlocksStayIntact() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE);
+        get(cache, 0);
+        final ByteBuffer hit = cache.get(0, true, () -> block(-1));
+        get(cache, 1);
+        assertFalse(cached(cache, 0));
+        assertEquals(0, hit.getLong(0));
+    }
+
+    @Test
+    void pinnedBlocksAreNotEvicted() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE);
+        get(cache, 0);
+        final long read = cache.read(0, true, () -> block(-1), block -> {
+            try {
+                // The only slot is pinned, so the block is not cached
+                assertEquals(1, get(cache, 1));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return block.getLong(0);
+        });
+        assertEquals(0, read);
+        assertTrue(cached(cache, 0));
+        assertFalse(cached(cache, 1));
+    }
+
+    @Test
+    void churn() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS * 16);
+        final Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            final long key = random.nextInt(SLOTS * 64);
+            assertEquals(key, (long) cache.read(key, true, () -> block(key), block -> block.getLong(0)));
+        }
+        assertTrue(cache.getHits() > 0);
+    }
+
+    @Test
+    void scansDoNotFill() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS);
+        cache.get(0, false, () -> block(0));
+        assertFalse(cached(cache, 0));
+        assertTrue(cached(cache, 0));
+    }
+
+    @Test
+    void largeBlocksAreNotCached() throws IOException {
+        final BlockCache cache = new BlockCache(BlockCache.SLOT_SIZE * SLOTS);
+        cache.get(0, true, () -> ByteBuffer.allocate(BlockCache.SLOT_SIZE + 1));
+        cache.get(0, true, () -> ByteBuffer.allocate(BlockCache.SLOT_SIZE + 1));
+        assertEquals(0, cache.getHits());
+    }
+}
@@ -0,0 +1,58 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link BloomFilter}.
+ */
+class BloomFilterTest {
+    private static final int KEYS = 10_000;
+    private static final double FPP = 0.01;
+
+    private static ByteBuffer key(final long i) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(i).rewind();
+    }
+
+    private static BloomFilter filter() {
+        final long[] hashes = new long[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            hashes[i] = BloomFilter.hash(key(i));
+        }
+        final BloomFilter created = BloomFilter.create(hashes, KEYS, FPP);
+        final ByteBuffer serialized = ByteBuffer.allocate(created.sizeInBytes());
+        created.writeTo(serialized);
+        return BloomFilter.read(serialized.flip());
+    }
+
+    @Test
+    void noFalseNegatives() {
+        final BloomFilter filter = filter();
+        for (int i = 0; i < KEYS; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    void falsePositiveRate() {
+        final BloomFilter filter = filter();
+        final int probes = KEYS * 10;
+        int positives = 0;
+        for (long i = KEYS; i < KEYS + probes; i++) {
+            if (filter.mightContain(key(i))) {
+                positives++;
+            }
+        }
+        assertTrue(positives < probes * FPP * 2, "False positives: " + positives);
+    }
+
+    @Test
+    void empty() {
+        final BloomFilter filter = BloomFilter.create(new long[0], 0, FPP);
+        assertFalse(filter.mightContain(key(0)));
+    }
+}
@@ -0,0 +1,429 @@
+package ru.mail.polis.persistence;
+
+import com.google.common.util.concurrent.RateLimiter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for SSTable formats.
+ */
+class FileTableTest {
+    private static final int ROWS = 10_000;
+    private static final LSMConfig PREAD = LSMConfig.builder().positionalReadThreshold(0).build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static List<Cell> cells() {
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            // Even keys only, so there is something to seek between
+            final ByteBuffer key = key(i * 2);
+            if (i % 7 == 0) {
+                cells.add(new Cell(key, Value.tombstone(i + 1)));
+            } else {
+                cells.add(new Cell(key, Value.of(i + 1, key(i))));
+            }
+        }
+        return cells;
+    }
+
+    private static void assertCell(final Cell expected, final Cell actual) {
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getValue().getTimeStamp(), actual.getValue().getTimeStamp());
+        assertEquals(expected.getValue().isRemoved(), actual.getValue().isRemoved());
+        if (!expected.getValue().isRemoved()) {
+            assertEquals(expected.getValue().getData(), actual.getValue().getData());
+        }
+    }
+
+    private static void assertTable(final List<Cell> cells, final FileTable table) {
+        final Iterator<Cell> all = table.iterator(ByteBuffer.allocate(0));
+        for (final Cell cell : cells) {
+            assertTrue(all.hasNext());
+            assertCell(cell, all.next());
+        }
+        assertFalse(all.hasNext());
+
+        for (int i = 0; i < ROWS; i += 37) {
+            final Iterator<Cell> exact = table.iterator(key(i * 2));
+            assertCell(cells.get(i), exact.next());
+
+            final Iterator<Cell> between = table.iterator(key(i * 2 - 1));
+            assertCell(cells.get(i), between.next());
+
+            assertCell(cells.get(i), table.get(key(i * 2)));
+            assertNull(table.get(key(i * 2 + 1)));
+        }
+        assertFalse(table.iterator(key(ROWS * 2)).hasNext());
+        assertNull(table.get(key(ROWS * 2)));
+        assertNull(table.get(ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void blocks(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "blocks");
+        Table.write(cells.iterator(), file);
+
+        final FileTable table = FileTable.open(file);
+        assertTrue(table instanceof BlockFileTable);
+        assertTable(cells, table);
+    }
+
+    @Test
+    void plainBlocks(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "plain");
+        Table.write(cells.iterator(), file, LSMConfig.builder().keyPrefixCompression(false).build());
+
+        assertTable(cells, FileTable.open(file));
+    }
+
+    @Test
+    void partitionedIndex(@TempDir final File data) throws IOException {
+        // Large values, so that there are many blocks and partitions
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            cells.add(new Cell(key(i * 2), Value.of(i + 1, ByteBuffer.allocate(500).putInt(0, i))));
+        }
+        final File file = new File(data, "partitioned");
+        Table.write(cells.iterator(), file, LSMConfig.builder().flatIndexLimit(0).build());
+
+        // The spilled partitions are removed
+        assertEquals(1, data.list().length);
+        assertTable(cells, FileTable.open(file));
+        assertTable(cells, FileTable.open(file, new BlockCache(1024 * 1024)));
+        try (FileTable table = FileTable.open(file, new BlockCache(1024 * 1024), PREAD)) {
+            assertTable(cells, table);
+        }
+    }
+
+    @Test
+    void learnedIndex(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "learned");
+        Table.write(cells.iterator(), file, LSMConfig.builder().learnedIndexError(2).build());
+
+        assertTable(cells, FileTable.open(file));
+    }
+
+    @Test
+    void positionalReads(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File plain = new File(data, "plain");
+        Table.write(cells.iterator(), plain);
+        final File compressed = new File(data, "compressed");
+        Table.write(cells.iterator(), compressed, LSMConfig.builder().compression(Compression.DEFLATE).build());
+
+        for (final File file : new File[]{plain, compressed}) {
+            try (FileTable table = FileTable.open(file, new BlockCache(0), PREAD)) {
+                assertTable(cells, table);
+            }
+            try (FileTable table = FileTable.open(file, new BlockCache(1024 * 1024), PREAD)) {
+                assertTable(cells, table);
+            }
+        }
+    }
+
+    @Test
+    void readAhead(@TempDir final File data) throws IOException, InterruptedException {
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            cells.add(new Cell(key(i * 2), Value.of(i + 1, ByteBuffer.allocate(500).putInt(0, i))));
+        }
+        final File flat = new File(data, "flat");
+        Table.write(cells.iterator(), flat);
+        final File partitioned = new File(data, "partitioned");
+        Table.write(cells.iterator(), partitioned, LSMConfig.builder().flatIndexLimit(0).build());
+
+        final long before = ReadAhead.getBytes();
+        for (final File file : new File[]{flat, partitioned}) {
+            for (final long threshold : new long[]{0, Long.MAX_VALUE}) {
+                final LSMConfig config = LSMConfig.builder()
+                        .positionalReadThreshold(threshold)
+                        .readAhead(16 * 1024)
+                        .build();
+                try (FileTable table = FileTable.open(file, new BlockCache(0), config)) {
+                    assertTable(cells, table);
+                }
+            }
+            final LSMConfig config = LSMConfig.builder().readAhead(0).build();
+            try (FileTable table = FileTable.open(file, new BlockCache(0), config)) {
+                assertTable(cells, table);
+            }
+        }
+        for (int i = 0; i < 100 && ReadAhead.getBytes() == before; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(ReadAhead.getBytes() > before);
+    }
+
+    @Test
+    void keysOutliveIteration(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "table");
+        Table.write(cells.iterator(), file);
+        final List<Cell> read = new ArrayList<>();
+        FileTable.open(file).iterator(key(1)).forEachRemaining(read::add);
+        assertEquals(cells.size() - 1, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertCell(cells.get(i + 1), read.get(i));
+        }
+    }
+
+    @Test
+    void cellsOutliveLookups(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "table");
+        Table.write(cells.iterator(), file);
+        // Positional reads reuse buffers of blocks once the lookup is done
+        try (FileTable table = FileTable.open(file, new BlockCache(0), PREAD)) {
+            final List<Cell> read = new ArrayList<>();
+            for (int i = 0; i < ROWS; i += 13) {
+                read.add(table.get(key(i * 2)));
+            }
+            for (int i = 0; i < read.size(); i++) {
+                assertCell(cells.get(i * 13), read.get(i));
+            }
+        }
+    }
+
+    @Test
+    void prefetchOfClosedFile(@TempDir final File data) throws IOException {
+        final File file = new File(data, "table");
+        Table.write(cells().iterator(), file);
+        final PreadFile pread = new PreadFile(file);
+        pread.close();
+        pread.prefetch(0, file.length());
+    }
+
+    @Test
+    void noBlockHashIndex(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File hashed = new File(data, "hashed");
+        Table.write(cells.iterator(), hashed);
+        final File file = new File(data, "nohash");
+        Table.write(cells.iterator(), file, LSMConfig.builder().blockHashIndex(false).build());
+
+        assertTrue(file.length() < hashed.length());
+        assertTable(cells, FileTable.open(file));
+    }
+
+    @Test
+    void compactCells(@TempDir final File data) throws IOException {
+        // Timestamps of the clock go both ways from the first one
+        final Random random = new Random(42);
+        final long now = System.currentTimeMillis() * 1_000_000L;
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            final long timeStamp = now + random.nextInt() * 1000L;
+            cells.add(new Cell(key(i * 2), i % 7 == 0 ? Value.tombstone(timeStamp) : Value.of(timeStamp, key(i))));
+        }
+        final File plain = new File(data, "plain");
+        Table.write(cells.iterator(), plain, LSMConfig.builder().compactCells(false).build());
+        final File compact = new File(data, "compact");
+        Table.write(cells.iterator(), compact);
+
+        assertTrue(compact.length() < plain.length());
+        assertTable(cells, FileTable.open(plain));
+        assertTable(cells, FileTable.open(compact));
+    }
+
+    @Test
+    void valueDictionary(@TempDir final File data) throws IOException {
+        final Random random = new Random(42);
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            final Value value = i % 7 == 0
+                    ? Value.tombstone(i + 1)
+                    : Value.of(i + 1, ValueDictionaryTest.document(random));
+            cells.add(new Cell(key(i * 2), value));
+        }
+        final File plain = new File(data, "plain");
+        Table.write(cells.iterator(), plain);
+        final File compressed = new File(data, "compressed");
+        Table.write(cells.iterator(), compressed, LSMConfig.builder().valueDictionarySize(4096).build());
+
+        assertTrue(compressed.length() * 3 < plain.length() * 2);
+        assertTable(cells, FileTable.open(compressed));
+        assertTable(cells, FileTable.open(compressed, new BlockCache(1024 * 1024)));
+
+        // Fewer cells than the sample
+        final File small = new File(data, "small");
+        Table.write(cells.subList(0, 10).iterator(), small, LSMConfig.builder().valueDictionarySize(4096).build());
+        final Iterator<Cell> all = FileTable.open(small).iterator(ByteBuffer.allocate(0));
+        for (final Cell cell : cells.subList(0, 10)) {
+            assertCell(cell, all.next());
+        }
+        assertFalse(all.hasNext());
+
+        // Values too few to fill the sample, it is cut at the limit of held back cells
+        final List<Cell> tombstones = new ArrayList<>();
+        for (int i = 0; i < FileTableWriter.MAX_SAMPLES * 2; i++) {
+            tombstones.add(new Cell(key(i), i % 1000 == 0 ? Value.of(i + 1, cells.get(1).getValue().getData())
+                    : Value.tombstone(i + 1)));
+        }
+        final File removed = new File(data, "removed");
+        Table.write(tombstones.iterator(), removed, LSMConfig.builder().valueDictionarySize(4096).build());
+        final Iterator<Cell> written = FileTable.open(removed).iterator(ByteBuffer.allocate(0));
+        for (final Cell cell : tombstones) {
+            assertCell(cell, written.next());
+        }
+        assertFalse(written.hasNext());
+    }
+
+    @Test
+    void prefixKeysAreSmaller(@TempDir final File data) throws IOException {
+        final File plain = new File(data, "plain");
+        Table.write(cells().iterator(), plain, LSMConfig.builder().keyPrefixCompression(false).build());
+        final File prefix = new File(data, "prefix");
+        Table.write(cells().iterator(), prefix);
+
+        assertTrue(prefix.length() < plain.length());
+    }
+
+    @Test
+    void compressedBlocks(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File plain = new File(data, "plain");
+        Table.write(cells.iterator(), plain);
+        final File compressed = new File(data, "compressed");
+        Table.write(cells.iterator(), compressed, LSMConfig.builder().compression(Compression.DEFLATE).build());
+
+        assertTrue(compressed.length() < plain.length());
+        assertTable(cells, FileTable.open(compressed, new BlockCache(1024 * 1024)));
+        assertTable(cells, FileTable.open(compressed));
+    }
+
+    @Test
+    void incompressibleBlocks(@TempDir final File data) throws IOException {
+        final Random random = new Random(42);
+        final List<Cell> cells = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            final byte[] value = new byte[100];
+            random.nextBytes(value);
+            cells.add(new Cell(key(i * 2), Value.of(i + 1, ByteBuffer.wrap(value))));
+        }
+        final File file = new File(data, "random");
+        Table.write(cells.iterator(), file, LSMConfig.builder().compression(Compression.DEFLATE).build());
+
+        assertTable(cells, FileTable.open(file));
+    }
+
+    @Test
+    @SuppressWarnings("UnstableApiUsage")
+    void checksums(@TempDir final File data) throws IOException, InterruptedException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "checksums");
+        Table.write(cells.iterator(), file, LSMConfig.builder().compression(Compression.DEFLATE).build());
+        final File unchecked = new File(data, "unchecked");
+        Table.write(cells.iterator(), unchecked, LSMConfig.builder().blockChecksums(false).build());
+
+        final RateLimiter limiter = RateLimiter.create(Double.MAX_VALUE);
+        final LSMConfig verify = LSMConfig.builder().verifyChecksums(true).build();
+        try (FileTable table = FileTable.open(file, new BlockCache(0), verify)) {
+            assertEquals(0, table.scrub(limiter));
+            assertTable(cells, table);
+        }
+        try (FileTable table = FileTable.open(unchecked, new BlockCache(0), verify)) {
+            assertEquals(0, table.scrub(limiter));
+            assertTable(cells, table);
+        }
+
+        // Flip a byte of the first block
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ByteBuffer octet = ByteBuffer.allocate(1);
+            channel.read(octet, 10);
+            channel.write(octet.put(0, (byte) ~octet.get(0)).flip(), 10);
+        }
+        try (FileTable table = FileTable.open(file, new BlockCache(0), verify)) {
+            assertEquals(1, table.scrub(limiter));
+            assertThrows(UncheckedIOException.class, () -> table.iterator(ByteBuffer.allocate(0)));
+            // Other blocks are still readable
+            assertNotNull(table.get(key(ROWS * 2 - 2)));
+        }
+    }
+
+    @Test
+    void stats(@TempDir final File data) throws IOException {
+        final File file = new File(data, "stats");
+        Table.write(cells().iterator(), file);
+
+        final FileTable table = FileTable.open(file);
+        final TableStats stats = table.getStats();
+        assertNotNull(stats);
+        assertEquals(ROWS, stats.getRows());
+        assertEquals((ROWS + 6) / 7, stats.getTombstones());
+        assertEquals(1, stats.getMinTimeStamp());
+        assertEquals(ROWS, stats.getMaxTimeStamp());
+        assertEquals(key(0), stats.getMinKey());
+        assertEquals(key(ROWS * 2 - 2), stats.getMaxKey());
+
+        assertTrue(table.mayOverlap(key(0), key(0)));
+        assertTrue(table.mayOverlap(key(ROWS), null));
+        assertTrue(table.mayOverlap(ByteBuffer.allocate(0), key(1)));
+        assertFalse(table.mayOverlap(key(ROWS * 2), null));
+        assertFalse(table.mayOverlap(ByteBuffer.allocate(0), ByteBuffer.wrap(new byte[]{'.'})));
+    }
+
+    @Test
+    void empty(@TempDir final File data) throws IOException {
+        final File file = new File(data, "empty");
+        Table.write(new ArrayList<Cell>().iterator(), file);
+
+        final FileTable table = FileTable.open(file);
+        assertFalse(table.iterator(ByteBuffer.allocate(0)).hasNext());
+        assertFalse(table.mayOverlap(ByteBuffer.allocate(0), null));
+    }
+
+    @Test
+    void legacy(@TempDir final File data) throws IOException {
+        final List<Cell> cells = cells();
+        final File file = new File(data, "legacy");
+        try (FileChannel channel = FileChannel.open(
+                file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            final List<Long> offsets = new ArrayList<>(ROWS);
+            long offset = 0;
+            for (final Cell cell : cells) {
+                offsets.add(offset);
+                final ByteBuffer buffer = ByteBuffer.allocate(Block.sizeOf(cell));
+                Block.write(buffer, cell);
+                offset += buffer.flip().remaining();
+                channel.write(buffer);
+            }
+            final ByteBuffer index = ByteBuffer.allocate(Long.BYTES * (offsets.size() + 1));
+            for (final long anOffset : offsets) {
+                index.putLong(anOffset);
+            }
+            index.putLong(offsets.size()).flip();
+            channel.write(index);
+        }
+
+        final FileTable table = FileTable.open(file);
+        assertTrue(table instanceof LegacyFileTable);
+        assertTrue(table.mayOverlap(key(ROWS * 2), null));
+        assertTable(cells, table);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link FrozenMemTable}.
+ */
+class FrozenMemTableTest {
+    private static ByteBuffer key(final Random random) {
+        final byte[] key = new byte[1 + random.nextInt(4)];
+        random.nextBytes(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static void assertSameCells(final Iterator<Cell> expected, final Iterator<Cell> actual) {
+        while (expected.hasNext()) {
+            final Cell cell = expected.next();
+            final Cell copy = actual.next();
+            assertEquals(cell.getKey(), copy.getKey());
+            assertEquals(0, cell.getValue().compareTo(copy.getValue()));
+            assertEquals(cell.getValue().isRemoved(), copy.getValue().isRemoved());
+            if (!cell.getValue().isRemoved()) {
+                assertEquals(cell.getValue().getData(), copy.getValue().getData());
+            }
+        }
+        assertFalse(actual.hasNext());
+    }
+
+    @Test
+    void sameAsMemTable() throws IOException {
+        final Random random = new Random(7);
+        final MemTable memTable = new MemTable();
+        for (int i = 0; i < 10_000; i++) {
+            if (random.nextInt(4) == 0) {
+                memTable.remove(key(random));
+            } else {
+                final byte[] value = new byte[random.nextInt(32)];
+                random.nextBytes(value);
+                memTable.upsert(key(random), ByteBuffer.wrap(value));
+            }
+        }
+        final FrozenMemTable frozen = FrozenMemTable.of(memTable);
+        assertNotNull(frozen);
+        assertSameCells(memTable.iterator(ByteBuffer.allocate(0)), frozen.iterator(ByteBuffer.allocate(0)));
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer from = key(random);
+            assertSameCells(memTable.iterator(from), frozen.iterator(from));
+            final Cell cell = memTable.get(from);
+            if (cell == null) {
+                assertNull(frozen.get(from));
+            } else {
+                final Cell copy = frozen.get(from);
+                assertNotNull(copy);
+                assertSameCells(List.of(cell).iterator(), List.of(copy).iterator());
+            }
+        }
+        assertThrows(UnsupportedOperationException.class, () -> frozen.remove(key(random)));
+    }
+}
@@ -0,0 +1,64 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link IndexPartition}.
+ */
+class IndexPartitionTest {
+    private static ByteBuffer random(final Random random, final int maxSize) {
+        final byte[] key = new byte[random.nextInt(maxSize + 1)];
+        random.nextBytes(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static void assertBlockFor(final TreeSet<ByteBuffer> separators, final Random random, final int maxSize) {
+        final ByteBuffer[] keys = separators.toArray(new ByteBuffer[0]);
+        final IndexPartition.Builder builder = new IndexPartition.Builder();
+        for (int i = 0; i < keys.length; i++) {
+            builder.add(i, keys[i]);
+        }
+        // Direct, as partitions read from the block cache
+        final ByteBuffer encoded = builder.finish(keys.length);
+        final ByteBuffer partition = ByteBuffer.allocateDirect(encoded.remaining()).put(encoded).flip();
+        for (int i = 0; i < 10_000; i++) {
+            final ByteBuffer key = random(random, maxSize);
+            int expected = Arrays.binarySearch(keys, key);
+            expected = expected >= 0 ? expected : Math.max(0, -expected - 2);
+            assertEquals(expected, IndexPartition.blockFor(partition, key, Separators.prefix(key)));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, IndexPartition.blockFor(partition, keys[i], Separators.prefix(keys[i])));
+            assertEquals(i, IndexPartition.offset(partition, i));
+        }
+    }
+
+    @Test
+    void blockForMatchesBinarySearch() {
+        final Random random = new Random(1);
+        final TreeSet<ByteBuffer> keys = new TreeSet<>();
+        while (keys.size() < 300) {
+            // Short keys, so that some prefixes tie
+            keys.add(random(random, 10));
+        }
+        assertBlockFor(keys, random, 10);
+    }
+
+    @Test
+    void sharedPrefixes() {
+        final Random random = new Random(2);
+        final TreeSet<ByteBuffer> keys = new TreeSet<>();
+        for (int i = 0; i < 300; i++) {
+            // A few distinct prefixes followed by random bytes
+            keys.add(ByteBuffer.allocate(Long.BYTES + 2).putLong(0, random.nextInt(4)).putShort(Long.BYTES, (short) i));
+        }
+        assertBlockFor(keys, random, Long.BYTES + 2);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LearnedIndex}.
+ */
+class LearnedIndexTest {
+    private static final int BLOCKS = 100_000;
+
+    private static ByteBuffer random(final Random random) {
+        final byte[] key = new byte[1 + random.nextInt(12)];
+        random.nextBytes(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    private static LearnedIndex fit(final Separators separators, final int error) {
+        final LearnedIndex.Builder builder = new LearnedIndex.Builder(error);
+        for (int i = 0; i < separators.size(); i++) {
+            builder.add(separators.get(i));
+        }
+        final ByteBuffer section = ByteBuffer.allocate(builder.sizeInBytes());
+        builder.writeTo(section);
+        return LearnedIndex.read(section.flip());
+    }
+
+    @Test
+    void uniformKeys() {
+        final Random random = new Random(2);
+        final ByteBuffer[] keys = new ByteBuffer[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            keys[i] = ByteBuffer.allocate(Long.BYTES).putLong(0, random.nextLong());
+        }
+        Arrays.sort(keys);
+        keys[0] = ByteBuffer.allocate(0);
+        final Separators separators = new Separators(keys);
+
+        final LearnedIndex index = fit(separators, 16);
+        assertTrue(index.segments() < BLOCKS / 100, "Segments: " + index.segments());
+        for (int i = 0; i < 100_000; i++) {
+            final ByteBuffer key = random(random);
+            assertEquals(separators.floor(key), index.blockFor(key, separators));
+        }
+        for (int i = 0; i < BLOCKS; i++) {
+            assertEquals(i, index.blockFor(keys[i], separators));
+        }
+    }
+
+    @Test
+    void sharedPrefixes() {
+        final ByteBuffer[] keys = new ByteBuffer[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            // Prefixes are the same for runs of 1000 blocks
+            final byte[] suffix = String.format("%08d", i).getBytes(StandardCharsets.US_ASCII);
+            keys[i] = ByteBuffer.allocate(Long.BYTES * 2).putLong(i / 1000).put(suffix).flip();
+        }
+        final Separators separators = new Separators(keys);
+        final LearnedIndex index = fit(separators, 4);
+        for (int i = 0; i < BLOCKS; i += 7) {
+            assertEquals(i, index.blockFor(keys[i], separators));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LongSpillList}.
+ */
+class LongSpillListTest {
+    private static final int CHUNK = 16;
+
+    private static void assertValues(final LongSpillList list, final long count) throws IOException {
+        assertEquals(count, list.size());
+        final AtomicLong expected = new AtomicLong();
+        list.forEach(value -> assertEquals(expected.getAndIncrement() * 31, value));
+        assertEquals(count, expected.get());
+    }
+
+    @Test
+    void inMemory(@TempDir final File data) throws IOException {
+        final File spill = new File(data, "spill");
+        try (LongSpillList list = new LongSpillList(spill, CHUNK)) {
+            for (long i = 0; i < CHUNK; i++) {
+                list.add(i * 31);
+            }
+            assertFalse(spill.exists());
+            assertValues(list, CHUNK);
+        }
+    }
+
+    @Test
+    void spilled(@TempDir final File data) throws IOException {
+        final File spill = new File(data, "spill");
+        final int count = CHUNK * 10 + 3;
+        try (LongSpillList list = new LongSpillList(spill, CHUNK)) {
+            for (long i = 0; i < count; i++) {
+                list.add(i * 31);
+            }
+            assertTrue(spill.exists());
+            assertValues(list, count);
+        }
+        assertFalse(spill.exists());
+    }
+}
@@ -0,0 +1,55 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link MappedFile} with tiny segments.
+ */
+class MappedFileTest {
+    private static final int SEGMENT = 64;
+    private static final int LONGS = 100;
+
+    private static MappedFile mapped(final File data) throws IOException {
+        final ByteBuffer content = ByteBuffer.allocate(Long.BYTES * LONGS + 3);
+        // Odd shift, so that some values cross the border of segments
+        content.put(new byte[3]);
+        for (long i = 0; i < LONGS; i++) {
+            content.putLong(i * 0x0101_0101_0101L);
+        }
+        final File file = new File(data, "mapped");
+        Files.write(file.toPath(), content.array());
+        return new MappedFile(file, SEGMENT);
+    }
+
+    @Test
+    void primitives(@TempDir final File data) throws IOException {
+        final MappedFile file = mapped(data);
+        assertEquals(Long.BYTES * LONGS + 3, file.size());
+        for (int i = 0; i < LONGS; i++) {
+            final long offset = 3L + (long) Long.BYTES * i;
+            assertEquals(i * 0x0101_0101_0101L, file.getLong(offset));
+            assertEquals((int) (i * 0x0101_0101_0101L >>> Integer.SIZE), file.getInt(offset));
+        }
+    }
+
+    @Test
+    void slices(@TempDir final File data) throws IOException {
+        final MappedFile file = mapped(data);
+        for (int from = 0; from < LONGS; from += 7) {
+            final int count = Math.min(20, LONGS - from);
+            final ByteBuffer slice = file.slice(3L + (long) Long.BYTES * from, Long.BYTES * count);
+            assertEquals(Long.BYTES * count, slice.remaining());
+            for (long i = from; i < from + count; i++) {
+                assertEquals(i * 0x0101_0101_0101L, slice.getLong());
+            }
+        }
+    }
+}
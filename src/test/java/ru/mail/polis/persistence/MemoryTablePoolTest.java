@@ -0,0 +1,129 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link MemoryTablePool}.
+ */
+class MemoryTablePoolTest {
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+
+    @Test
+    void getFindsLatestMemTable() throws IOException {
+        for (final MemTableType type : MemTableType.values()) {
+            // Every write fills its memtable, so earlier ones wait for flush
+            final MemoryTablePool pool = new MemoryTablePool(0, 1, 16, type::create, false);
+            pool.upsert(key(1), key(10));
+            pool.upsert(key(2), key(20));
+            pool.upsert(key(1), key(11));
+            pool.remove(key(2));
+
+            final Cell first = pool.get(key(1));
+            assertNotNull(first);
+            assertEquals(key(11), first.getValue().getData());
+            final Cell second = pool.get(key(2));
+            assertNotNull(second);
+            assertTrue(second.getValue().isRemoved());
+            assertNull(pool.get(key(3)));
+        }
+    }
+
+    @Test
+    void pendingMemTablesFreeze() throws Exception {
+        final MemoryTablePool pool = new MemoryTablePool(0, 1, 16, MemTable::new, true);
+        for (int i = 0; i < 3; i++) {
+            pool.upsert(key(i), key(i * 10));
+        }
+        // Frozen cells take 16 bytes more than keys and values
+        final long frozenSize = 3 * (Integer.BYTES * 2 + 16);
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (pool.sizeInBytes() != frozenSize && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(frozenSize, pool.sizeInBytes());
+
+        final Iterator<Cell> cells = pool.iterator(key(1));
+        assertEquals(key(10), cells.next().getValue().getData());
+        assertEquals(key(20), cells.next().getValue().getData());
+        assertFalse(cells.hasNext());
+        final Cell first = pool.get(key(0));
+        assertNotNull(first);
+        assertEquals(key(0), first.getValue().getData());
+        assertEquals(3, pool.toFlush().getGeneration());
+    }
+
+    @Test
+    void queuedMemTablesFlushTogether() throws Exception {
+        final MemoryTablePool pool = new MemoryTablePool(0, 1, 16, MemTable::new, false);
+        pool.upsert(key(1), key(10));
+        pool.upsert(key(2), key(20));
+        pool.upsert(key(1), key(11));
+
+        final FlushTable flush = pool.toFlush();
+        assertEquals(3, flush.getGeneration());
+        assertFalse(flush.isPoisonPill());
+        final Iterator<Cell> cells = flush.getTable().iterator(ByteBuffer.allocate(0));
+        assertEquals(key(11), cells.next().getValue().getData());
+        assertEquals(key(20), cells.next().getValue().getData());
+        assertFalse(cells.hasNext());
+
+        pool.flushed(flush);
+        assertNull(pool.get(key(1)));
+        assertEquals(0, pool.sizeInBytes());
+    }
+
+    @Test
+    void generationsQueuedOutOfOrder() throws Exception {
+        final CountDownLatch swapped = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        // The writer of generation 1 is late to queue it, as after losing the race to the next writer
+        final BlockingQueue<Integer> queue = new LinkedBlockingQueue<>() {
+            @Override
+            public void put(final Integer generation) throws InterruptedException {
+                if (generation == 1) {
+                    swapped.countDown();
+                    released.await();
+                }
+                super.put(generation);
+            }
+        };
+        final MemoryTablePool pool = new MemoryTablePool(0, 1, MemTable::new, false, queue);
+        final Thread late = new Thread(() -> pool.upsert(key(1), key(10)));
+        late.start();
+        swapped.await();
+        pool.upsert(key(2), key(20));
+
+        final FlushTable first = pool.toFlush();
+        assertEquals(2, first.getGeneration());
+        assertEquals(List.of(2), first.getGenerations());
+        pool.flushed(first);
+        final Cell pending = pool.get(key(1));
+        assertNotNull(pending);
+        assertEquals(key(10), pending.getValue().getData());
+
+        released.countDown();
+        late.join();
+        final FlushTable second = pool.toFlush();
+        assertEquals(1, second.getGeneration());
+        assertNotNull(second.getTable());
+        assertEquals(key(1), second.getTable().iterator(ByteBuffer.allocate(0)).next().getKey());
+        pool.flushed(second);
+        assertNull(pool.get(key(1)));
+    }
+}
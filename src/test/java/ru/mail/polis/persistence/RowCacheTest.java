@@ -0,0 +1,185 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link RowCache} and its use by {@link LSMDao}.
+ */
+class RowCacheTest {
+    private static final int CAPACITY = 1024 * 1024;
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(0, i);
+    }
+
+    private static Value value(final int i) {
+        return Value.of(i + 1, ByteBuffer.allocate(128).putInt(0, i));
+    }
+
+    private static void read(final RowCache cache, final int i) {
+        final long stamp = cache.stamp(key(i));
+        if (cache.get(key(i)) == null) {
+            cache.put(key(i), value(i), stamp);
+        }
+    }
+
+    @Test
+    void hotKeysSurviveScans() {
+        final RowCache cache = new RowCache(CAPACITY);
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                read(cache, i);
+            }
+        }
+        // Scan of one-off keys, many times the capacity
+        for (int i = 1000; i < 100_000; i++) {
+            read(cache, i);
+        }
+        for (int i = 0; i < 100; i++) {
+            final Value value = cache.get(key(i));
+            assertNotNull(value);
+            assertEquals(value(i).getData(), value.getData());
+        }
+        assertTrue(cache.sizeInBytes() <= CAPACITY);
+    }
+
+    @Test
+    void writesInvalidate() {
+        final RowCache cache = new RowCache(CAPACITY);
+        read(cache, 1);
+        assertNotNull(cache.get(key(1)));
+        cache.invalidate(key(1));
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.sizeInBytes());
+    }
+
+    @Test
+    void staleValuesAreNotCached() {
+        final RowCache cache = new RowCache(CAPACITY);
+        final long stamp = cache.stamp(key(1));
+        // The key is written between the lookup and the put
+        cache.invalidate(key(1));
+        cache.put(key(1), value(1), stamp);
+        assertNull(cache.get(key(1)));
+    }
+
+    @Test
+    void absentKeysAreNotCached() {
+        final RowCache cache = new RowCache(CAPACITY);
+        cache.put(key(1), Value.absent(), cache.stamp(key(1)));
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.sizeInBytes());
+    }
+
+    @Test
+    void concurrentReads() throws InterruptedException {
+        final RowCache cache = new RowCache(64 * 1024);
+        final Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            final int seed = t;
+            readers[t] = new Thread(() -> {
+                final Random random = new Random(seed);
+                for (int i = 0; i < 100_000; i++) {
+                    final int key = random.nextInt(1000);
+                    if (i % 100 == 0) {
+                        cache.invalidate(key(key));
+                    } else {
+                        read(cache, key);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        for (int i = 0; i < 1000; i++) {
+            final Value value = cache.get(key(i));
+            if (value != null) {
+                assertEquals(value(i).getData(), value.getData());
+            }
+        }
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.sizeInBytes() <= 64 * 1024);
+    }
+
+    @Test
+    void disabled() {
+        final RowCache cache = new RowCache(0);
+        cache.put(key(1), value(1), cache.stamp(key(1)));
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    void coherentWithDao(@TempDir final File data) throws IOException {
+        final LSMConfig config = LSMConfig.builder().rowCacheSize(CAPACITY).build();
+        try (LSMDao dao = new LSMDao(data, 1024 * 1024, 2, config)) {
+            dao.upsert(key(1), value(1).getData());
+            assertEquals(value(1).getData(), dao.getValue(key(1)).getData());
+            assertEquals(value(1).getData(), dao.getValue(key(1)).getData());
+
+            dao.upsert(key(1), value(2).getData());
+            assertEquals(value(2).getData(), dao.getValue(key(1)).getData());
+
+            dao.remove(key(1));
+            assertEquals(Value.State.REMOVED, dao.getValue(key(1)).state());
+            assertEquals(Value.State.ABSENT, dao.getValue(key(2)).state());
+            dao.upsert(key(2), value(2).getData());
+            assertEquals(value(2).getData(), dao.getValue(key(2)).getData());
+
+            dao.compact();
+            assertEquals(value(2).getData(), dao.getValue(key(2)).getData());
+            assertTrue(dao.getRowCacheHitRate() > 0.0);
+            assertTrue(dao.getRowCacheSize() > 0);
+        }
+    }
+
+    @Test
+    void coherentWithCompaction(@TempDir final File data) throws Exception {
+        final LSMConfig config = LSMConfig.builder().rowCacheSize(CAPACITY).build();
+        final int keys = 2000;
+        for (int round = 0; round < 3; round++) {
+            // Small memtables, so the cells are spread over many tables
+            try (LSMDao dao = new LSMDao(data, 16 * 1024, 2, config)) {
+                for (int i = 0; i < keys; i++) {
+                    dao.upsert(key(i), value(round * keys + i).getData());
+                }
+            }
+            try (LSMDao dao = new LSMDao(data, 16 * 1024, 2, config)) {
+                final int expected = round * keys;
+                final AtomicBoolean compacted = new AtomicBoolean();
+                final Thread reader = new Thread(() -> {
+                    final Random random = new Random();
+                    while (!compacted.get()) {
+                        try {
+                            dao.getValue(key(random.nextInt(keys)));
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+                reader.start();
+                dao.compact();
+                compacted.set(true);
+                reader.join();
+                for (int i = 0; i < keys; i++) {
+                    assertEquals(value(expected + i).getData(), dao.getValue(key(i)).getData());
+                }
+            }
+        }
+    }
+}
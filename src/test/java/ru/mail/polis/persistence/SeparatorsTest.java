@@ -0,0 +1,85 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Unit tests for {@link Separators}.
+ */
+class SeparatorsTest {
+    private static ByteBuffer random(final Random random, final int maxSize) {
+        final byte[] key = new byte[random.nextInt(maxSize + 1)];
+        random.nextBytes(key);
+        return ByteBuffer.wrap(key);
+    }
+
+    @Test
+    void prefixKeepsOrder() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            final ByteBuffer a = random(random, 12);
+            final ByteBuffer b = random(random, 12);
+            final int order = Long.compareUnsigned(Separators.prefix(a), Separators.prefix(b));
+            if (order != 0) {
+                assertEquals(Integer.signum(a.compareTo(b)), order);
+            }
+        }
+    }
+
+    private static void assertFloor(final ByteBuffer[] keys, final Random random, final int maxSize) {
+        Arrays.sort(keys);
+        for (final boolean tree : new boolean[]{false, true}) {
+            final Separators separators = new Separators(keys, tree);
+            for (int i = 0; i < 100_000; i++) {
+                final ByteBuffer key = random(random, maxSize);
+                int expected = Arrays.binarySearch(keys, key);
+                expected = expected >= 0 ? expected : Math.max(0, -expected - 2);
+                final int actual = separators.floor(key);
+                // Equal separators may be found at any of their positions
+                assertEquals(keys[expected], keys[actual]);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(keys[i], keys[separators.floor(keys[i])]);
+            }
+        }
+    }
+
+    @Test
+    void floorMatchesBinarySearch() {
+        final Random random = new Random(2);
+        final ByteBuffer[] keys = new ByteBuffer[10_000];
+        for (int i = 0; i < keys.length; i++) {
+            // Short keys, so that some prefixes tie
+            keys[i] = random(random, 10);
+        }
+        assertFloor(keys, random, 10);
+    }
+
+    @Test
+    void sharedPrefixes() {
+        final Random random = new Random(3);
+        final ByteBuffer[] keys = new ByteBuffer[5_000];
+        for (int i = 0; i < keys.length; i++) {
+            // A few distinct prefixes followed by random bytes
+            keys[i] = ByteBuffer.allocate(Long.BYTES + 2).putLong(0, random.nextInt(4)).putShort(Long.BYTES, (short) i);
+        }
+        assertFloor(keys, random, Long.BYTES + 2);
+    }
+
+    @Test
+    void small() {
+        final Random random = new Random(4);
+        for (int size = 1; size < 40; size++) {
+            final ByteBuffer[] keys = new ByteBuffer[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = random(random, 3);
+            }
+            assertFloor(keys, random, 3);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link ValueDictionary}.
+ */
+class ValueDictionaryTest {
+    static ByteBuffer document(final Random random) {
+        final String json = String.format(
+                "{\"id\":%d,\"name\":\"user%d\",\"email\":\"user%d@example.com\",\"active\":%b}",
+                random.nextInt(1_000_000), random.nextInt(1000), random.nextInt(1000), random.nextBoolean());
+        return ByteBuffer.wrap(json.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer roundTrip(final ValueDictionary dictionary, final ByteBuffer value) {
+        final ValueDictionary.Compressor compressor = new ValueDictionary.Compressor(dictionary);
+        try {
+            final ByteBuffer stored = compressor.compress(value);
+            final ByteBuffer copy = ByteBuffer.allocate(stored.remaining()).put(stored).flip();
+            return dictionary.decompress(copy);
+        } finally {
+            compressor.end();
+        }
+    }
+
+    @Test
+    void smallDocuments() {
+        final Random random = new Random(1);
+        final List<ByteBuffer> samples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            samples.add(document(random));
+        }
+        final ValueDictionary dictionary = ValueDictionary.train(samples, 4096);
+        assertTrue(dictionary.sizeInBytes() > 0 && dictionary.sizeInBytes() <= 4096);
+
+        final ValueDictionary.Compressor compressor = new ValueDictionary.Compressor(dictionary);
+        long raw = 0;
+        long stored = 0;
+        for (int i = 0; i < 1000; i++) {
+            final ByteBuffer value = document(random);
+            raw += value.remaining();
+            stored += compressor.compress(value).remaining();
+            assertEquals(value, roundTrip(dictionary, value));
+        }
+        compressor.end();
+        assertTrue(stored * 2 < raw, "Stored " + stored + " of " + raw);
+    }
+
+    @Test
+    void incompressible() {
+        final Random random = new Random(2);
+        final ValueDictionary dictionary = ValueDictionary.train(Collections.singletonList(document(random)), 4096);
+        final byte[] bytes = new byte[1000];
+        random.nextBytes(bytes);
+        final ByteBuffer value = ByteBuffer.wrap(bytes);
+        assertEquals(value, roundTrip(dictionary, value));
+        assertEquals(ByteBuffer.allocate(0), roundTrip(dictionary, ByteBuffer.allocate(0)));
+    }
+
+    @Test
+    void noSamples() {
+        final ValueDictionary dictionary = ValueDictionary.train(Collections.emptyList(), 4096);
+        assertEquals(0, dictionary.sizeInBytes());
+        final ByteBuffer value = document(new Random(3));
+        assertEquals(value, roundTrip(dictionary, value));
+    }
+}
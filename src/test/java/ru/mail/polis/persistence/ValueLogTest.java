@@ -0,0 +1,170 @@
+package ru.mail.polis.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.mail.polis.Record;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Key-value separation tests for {@link LSMDao}.
+ */
+class ValueLogTest {
+    private static final int KEYS = 100;
+    private static final int LARGE = 16 * 1024;
+    private static final LSMConfig CONFIG = LSMConfig.builder()
+            .valueSeparationThreshold(1024)
+            .valueLogGcRatio(0.6)
+            .build();
+
+    private static ByteBuffer key(final int i) {
+        return ByteBuffer.wrap(String.format("%08d", i).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static ByteBuffer value(final int i, final int round, final int size) {
+        final byte[] value = new byte[size];
+        Arrays.fill(value, (byte) (i + round));
+        return ByteBuffer.wrap(value);
+    }
+
+    private static LSMDao dao(final File data) throws IOException {
+        return new LSMDao(data, 1024 * 1024, 2, CONFIG);
+    }
+
+    private static void fill(final File data, final int round) throws IOException {
+        try (LSMDao dao = dao(data)) {
+            for (int i = 0; i < KEYS; i++) {
+                // Odd keys stay small and inline
+                dao.upsert(key(i), value(i, round, i % 2 == 0 ? LARGE : 16));
+            }
+        }
+    }
+
+    private static void check(final LSMDao dao, final int round) throws IOException {
+        final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+        for (int i = 0; i < KEYS; i++) {
+            final ByteBuffer expected = value(i, round, i % 2 == 0 ? LARGE : 16);
+            assertEquals(expected, dao.getValue(key(i)).getData());
+            final Record record = records.next();
+            assertEquals(key(i), record.getKey());
+            assertEquals(expected, record.getValue());
+        }
+        assertFalse(records.hasNext());
+    }
+
+    private static long tablesSize(final File data) {
+        long size = 0;
+        for (final File file : data.listFiles()) {
+            if (file.getName().startsWith(LSMDao.PREFIX_FILE)) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    @Test
+    void largeValuesAreSeparated(@TempDir final File data) throws IOException {
+        fill(data, 0);
+        try (LSMDao dao = dao(data)) {
+            check(dao, 0);
+            assertTrue(dao.getValueLogSize() >= (long) KEYS / 2 * LARGE);
+            assertTrue(tablesSize(data) < LARGE);
+        }
+    }
+
+    @Test
+    void compactionMovesPointers(@TempDir final File data) throws IOException {
+        fill(data, 0);
+        fill(data, 1);
+        try (LSMDao dao = dao(data)) {
+            dao.compact();
+            check(dao, 1);
+            assertTrue(tablesSize(data) < LARGE);
+        }
+    }
+
+    @Test
+    void deadSegmentsAreCollected(@TempDir final File data) throws IOException {
+        fill(data, 0);
+        try (LSMDao dao = dao(data)) {
+            for (int i = 0; i < KEYS; i += 4) {
+                dao.remove(key(i));
+            }
+        }
+        try (LSMDao dao = dao(data)) {
+            dao.compact();
+            final long logSize = dao.getValueLogSize();
+            // Half of large values is dead now, the second compaction moves the rest
+            dao.compact();
+            assertTrue(dao.getValueLogSize() < logSize);
+            for (int i = 0; i < KEYS; i += 2) {
+                if (i % 4 == 0) {
+                    assertTrue(dao.getValue(key(i)).isRemoved());
+                } else {
+                    assertEquals(value(i, 0, LARGE), dao.getValue(key(i)).getData());
+                }
+            }
+        }
+    }
+
+    @Test
+    void iteratorsOutliveCollectedSegments(@TempDir final File data) throws IOException {
+        fill(data, 0);
+        try (LSMDao dao = dao(data)) {
+            for (int i = 0; i < KEYS; i += 4) {
+                dao.remove(key(i));
+            }
+        }
+        try (LSMDao dao = dao(data)) {
+            dao.compact();
+            final Iterator<Record> records = dao.iterator(ByteBuffer.allocate(0));
+            // Moves the rest of large values and drops the segment read by the iterator
+            dao.compact();
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 4 != 0) {
+                    final Record record = records.next();
+                    assertEquals(key(i), record.getKey());
+                    assertEquals(value(i, 0, i % 2 == 0 ? LARGE : 16), record.getValue());
+                }
+            }
+            assertFalse(records.hasNext());
+        }
+    }
+
+    @Test
+    void sealedSegmentIsKept(@TempDir final File data) throws IOException {
+        final ValueLog log = new ValueLog(data);
+        final Value value;
+        try (ValueLog.Appender values = log.appender(1024)) {
+            value = values.place(Value.of(1, value(1, 0, LARGE)));
+            values.seal();
+        }
+        // The table may be in place already
+        assertEquals(value(1, 0, LARGE), log.resolve(value).getData());
+        assertEquals(value(1, 0, LARGE), new ValueLog(data).resolve(value).getData());
+    }
+
+    @Test
+    void overwrittenSegmentsAreRemoved(@TempDir final File data) throws IOException {
+        fill(data, 0);
+        fill(data, 1);
+        try (LSMDao dao = dao(data)) {
+            final long logSize = dao.getValueLogSize();
+            dao.compact();
+            assertTrue(dao.getValueLogSize() <= logSize / 2);
+            check(dao, 1);
+        }
+        try (LSMDao dao = dao(data)) {
+            check(dao, 1);
+        }
+    }
+}